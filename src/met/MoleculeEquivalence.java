@@ -1,8 +1,12 @@
 package met;
 
 import met.algorithm.METDefault;
+import met.algorithm.SearchSettings;
+import met.algorithm.SearchStatistics;
 import met.interfaces.Algorithm;
+import met.interfaces.Outcome;
 import met.molecule.Atom;
+import met.molecule.EquivalenceConfiguration;
 import met.molecule.Molecule;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
@@ -12,12 +16,17 @@ import java.util.Map;
 
 /**
  * Main class for testing equivalence of CDK molecules.
+ * <p>
+ * The CDK containers are not modified by the test. Neutral hydrogen atoms are
+ * counted by their neighbors and are therefore not part of the atom mapping.
  */
 public class MoleculeEquivalence {
 
     // the result of the equivalence test
     private boolean equivalent = false;     // whether the two molecules are equivalent (in 2D)
     private Map<IAtom, IAtom> mapping;      // a mapping from mol1 to mol2 (isomorphism function)
+    private Outcome outcome;                // the outcome, which is UNKNOWN if the test has been aborted
+    private SearchStatistics statistics;    // statistics of the test, or null
 
     /**
      * Test whether two CDK molecules are equivalent.
@@ -26,16 +35,43 @@ public class MoleculeEquivalence {
      * @param mol2 CDK container.
      */
     public MoleculeEquivalence(IAtomContainer mol1, IAtomContainer mol2) {
+        this(mol1, mol2, new SearchSettings());
+    }
+
+    /**
+     * Test whether two CDK molecules are equivalent.
+     *
+     * @param mol1     CDK container.
+     * @param mol2     CDK container.
+     * @param settings Settings of the search.
+     */
+    public MoleculeEquivalence(IAtomContainer mol1, IAtomContainer mol2, SearchSettings settings) {
+        this(mol1, mol2, EquivalenceConfiguration.DEFAULT, settings);
+    }
+
+    /**
+     * Test whether two CDK molecules are equivalent with respect to a certain
+     * selection of atom traits.
+     *
+     * @param mol1          CDK container.
+     * @param mol2          CDK container.
+     * @param configuration Atom traits, bond orders and isotopes to be compared.
+     * @param settings      Settings of the search.
+     */
+    public MoleculeEquivalence(IAtomContainer mol1, IAtomContainer mol2, EquivalenceConfiguration configuration,
+                               SearchSettings settings) {
 
         // transform CDK containers into molecule graphs
-        Molecule m1 = new Molecule(mol1);
-        Molecule m2 = new Molecule(mol2);
+        Molecule m1 = new Molecule(mol1, configuration);
+        Molecule m2 = new Molecule(mol2, configuration);
 
         // run an equivalence algorithm
-        Algorithm alg = new METDefault(m1, m2);
+        Algorithm alg = new METDefault(m1, m2, settings);
 
         // evaluate results
         equivalent = alg.areEquivalent();
+        outcome = alg.getOutcome();
+        statistics = alg.getStatistics();
 
         if (equivalent) {
 
@@ -59,6 +95,24 @@ public class MoleculeEquivalence {
     }
 
 
+    /**
+     * Return the outcome of the equivalence test, which is UNKNOWN if a limit of the search has been reached.
+     *
+     * @return
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Return the statistics of the test, or null if they have not been collected.
+     *
+     * @return
+     */
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Return a mapping between the atoms from mol1 to those of mol2, or null if the molecules are not equivalent.
      *
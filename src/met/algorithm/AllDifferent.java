@@ -0,0 +1,391 @@
+package met.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Global feasibility check for the injectivity of the atom mapping.
+ * <p>
+ * Consider the bipartite graph between the unassigned atoms of g1 and g2 in which
+ * each atom u of g1 is connected to its candidates. An isomorphism can only
+ * extend the current partial mapping if this graph has a perfect matching.
+ * Moreover, a candidate b of u can only be used if the edge (u, b) belongs to
+ * some perfect matching.
+ * <p>
+ * A maximum matching is computed with the algorithm of Hopcroft and Karp. The
+ * matching is kept between calls: after the candidate sets have changed, only
+ * the edges that have become invalid are removed from the matching, and the
+ * matching is repaired by searching for augmenting paths from the unmatched atoms.
+ * <p>
+ * The edges that do not belong to any perfect matching are identified by the
+ * method of Régin: with respect to a perfect matching M, an edge (u, b) not in M
+ * belongs to some perfect matching if and only if u and b lie in the same strongly
+ * connected component of the graph in which the edges of M are directed from g2
+ * to g1 and all other edges are directed from g1 to g2.
+ */
+class AllDifferent {
+
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    // number of atoms in g1 and g2
+    private int n1;
+    private int n2;
+
+    // matched partner of each atom in g1 (g2), or -1
+    private int[] match1;
+    private int[] match2;
+
+    // work arrays of the Hopcroft-Karp algorithm
+    private int[] dist;             // layer of each atom in g1
+    private int[] bfsQueue;         // breadth first search queue
+    private int[] pathAtoms;        // atoms of g1 on the current augmenting path
+    private int[] pathCandidates;   // atoms of g2 chosen by the atoms on the path
+    private int[] cursor;           // next candidate to be tested by each atom in g1
+
+    /*
+     * Work arrays of Tarjan's algorithm for strongly connected components.
+     * Node i < n1 represents atom i in g1, node n1 + j represents atom j in g2.
+     */
+    private int[] index;
+    private int[] lowLink;
+    private int[] component;
+    private int[] nodeCursor;
+    private int[] tarjanStack;
+    private int[] callStack;
+    private boolean[] onStack;
+
+    // pairs (atom, candidate) found to be inconsistent by the last call of filter()
+    private int[] removals;
+    private int removalCount;
+
+    /**
+     * Create an all-different constraint for two molecules with the given number of atoms.
+     *
+     * @param n1 Number of atoms in g1.
+     * @param n2 Number of atoms in g2.
+     */
+    AllDifferent(int n1, int n2) {
+        this.n1 = n1;
+        this.n2 = n2;
+
+        match1 = new int[n1];
+        match2 = new int[n2];
+        Arrays.fill(match1, -1);
+        Arrays.fill(match2, -1);
+
+        dist = new int[n1];
+        bfsQueue = new int[n1];
+        pathAtoms = new int[n1];
+        pathCandidates = new int[n1];
+        cursor = new int[n1];
+
+        index = new int[n1 + n2];
+        lowLink = new int[n1 + n2];
+        component = new int[n1 + n2];
+        nodeCursor = new int[n1 + n2];
+        tarjanStack = new int[n1 + n2];
+        callStack = new int[n1 + n2];
+        onStack = new boolean[n1 + n2];
+
+        removals = new int[16];
+    }
+
+    /**
+     * Prepare the constraint for two other molecules with the given number of atoms.
+     * The work arrays are reused and only grow if they are too small.
+     *
+     * @param n1 Number of atoms in g1.
+     * @param n2 Number of atoms in g2.
+     */
+    void reset(int n1, int n2) {
+
+        if (match1.length < n1 || match2.length < n2) {
+            int m1 = Math.max(n1, match1.length);
+            int m2 = Math.max(n2, match2.length);
+            match1 = new int[m1];
+            match2 = new int[m2];
+            dist = new int[m1];
+            bfsQueue = new int[m1];
+            pathAtoms = new int[m1];
+            pathCandidates = new int[m1];
+            cursor = new int[m1];
+            index = new int[m1 + m2];
+            lowLink = new int[m1 + m2];
+            component = new int[m1 + m2];
+            nodeCursor = new int[m1 + m2];
+            tarjanStack = new int[m1 + m2];
+            callStack = new int[m1 + m2];
+            onStack = new boolean[m1 + m2];
+        }
+
+        this.n1 = n1;
+        this.n2 = n2;
+        Arrays.fill(match1, -1);
+        Arrays.fill(match2, -1);
+        removalCount = 0;
+    }
+
+    /**
+     * Test whether the unassigned atoms of g1 can still be mapped injectively onto
+     * the unassigned atoms of g2, and determine all candidates that cannot be part
+     * of such a mapping. These candidates can afterwards be queried by
+     * getRemovalCount(), getRemovalAtom() and getRemovalCandidate().
+     *
+     * @param can        Candidate sets.
+     * @param assignment For each atom in g1 the assigned atom in g2, or -1.
+     * @return False, if there is no perfect matching.
+     */
+    boolean filter(CandidateManager can, int[] assignment) {
+
+        removalCount = 0;
+
+        if (!repairMatching(can, assignment))
+            return false;
+
+        findComponents(can, assignment);
+
+        // an edge outside the matching is consistent iff its end points share a component
+        for (int u = 0; u < n1; u++) {
+            if (assignment[u] != -1)
+                continue;
+            for (int b = can.nextCandidate(u, 0); b != -1; b = can.nextCandidate(u, b + 1)) {
+                if (b != match1[u] && component[u] != component[n1 + b]) {
+                    addRemoval(u, b);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the number of inconsistent candidates found by the last call of filter().
+     *
+     * @return
+     */
+    int getRemovalCount() {
+        return removalCount;
+    }
+
+    /**
+     * Return the atom in g1 of the i-th inconsistent candidate.
+     *
+     * @param i
+     * @return
+     */
+    int getRemovalAtom(int i) {
+        return removals[2 * i];
+    }
+
+    /**
+     * Return the atom in g2 of the i-th inconsistent candidate.
+     *
+     * @param i
+     * @return
+     */
+    int getRemovalCandidate(int i) {
+        return removals[2 * i + 1];
+    }
+
+    /**
+     * Remove invalid edges from the matching and extend it to a maximum matching.
+     *
+     * @return True, if each unassigned atom of g1 is matched.
+     */
+    private boolean repairMatching(CandidateManager can, int[] assignment) {
+
+        // drop all matching edges that are no longer candidates
+        int free = 0;
+        for (int u = 0; u < n1; u++) {
+            int b = match1[u];
+            if (b != -1 && (assignment[u] != -1 || !can.isCandidate(u, b))) {
+                match1[u] = -1;
+                match2[b] = -1;
+                b = -1;
+            }
+            if (b == -1 && assignment[u] == -1) {
+                free++;
+            }
+        }
+
+        // Hopcroft-Karp phases
+        while (free > 0 && buildLayers(can, assignment)) {
+            for (int u = 0; u < n1; u++) {
+                if (assignment[u] == -1 && match1[u] == -1 && augment(can, u)) {
+                    free--;
+                }
+            }
+        }
+
+        return free == 0;
+    }
+
+    /**
+     * Breadth first search from all unmatched atoms of g1 along alternating paths.
+     *
+     * @return True, if some augmenting path exists.
+     */
+    private boolean buildLayers(CandidateManager can, int[] assignment) {
+
+        int head = 0;
+        int tail = 0;
+        for (int u = 0; u < n1; u++) {
+            if (assignment[u] == -1 && match1[u] == -1) {
+                dist[u] = 0;
+                bfsQueue[tail++] = u;
+            } else {
+                dist[u] = INFINITY;
+            }
+        }
+
+        boolean found = false;
+        while (head < tail) {
+            int u = bfsQueue[head++];
+            for (int b = can.nextCandidate(u, 0); b != -1; b = can.nextCandidate(u, b + 1)) {
+                int w = match2[b];
+                if (w == -1) {
+                    found = true;
+                } else if (dist[w] == INFINITY) {
+                    dist[w] = dist[u] + 1;
+                    bfsQueue[tail++] = w;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Depth first search for an augmenting path along the layers, starting at an unmatched atom.
+     *
+     * @param root Unmatched atom in g1.
+     * @return True, if the matching has been augmented.
+     */
+    private boolean augment(CandidateManager can, int root) {
+
+        int depth = 0;
+        pathAtoms[depth++] = root;
+        cursor[root] = 0;
+
+        while (depth > 0) {
+
+            int u = pathAtoms[depth - 1];
+            int b = can.nextCandidate(u, cursor[u]);
+
+            // dead end: u is not used again in this phase
+            if (b == -1) {
+                dist[u] = INFINITY;
+                depth--;
+                continue;
+            }
+            cursor[u] = b + 1;
+
+            int w = match2[b];
+            if (w == -1) {
+
+                // flip the matching along the path
+                pathCandidates[depth - 1] = b;
+                for (int k = 0; k < depth; k++) {
+                    match1[pathAtoms[k]] = pathCandidates[k];
+                    match2[pathCandidates[k]] = pathAtoms[k];
+                }
+                return true;
+            }
+
+            if (dist[w] != INFINITY && dist[w] == dist[u] + 1) {
+                pathCandidates[depth - 1] = b;
+                pathAtoms[depth++] = w;
+                cursor[w] = 0;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Determine the strongly connected components of the directed matching graph (Tarjan).
+     */
+    private void findComponents(CandidateManager can, int[] assignment) {
+
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int components = 0;
+        int stackSize = 0;
+
+        for (int root = 0; root < n1; root++) {
+
+            if (assignment[root] != -1 || index[root] != -1)
+                continue;
+
+            int calls = 0;
+            callStack[calls++] = root;
+            index[root] = lowLink[root] = counter++;
+            nodeCursor[root] = 0;
+            tarjanStack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (calls > 0) {
+
+                int v = callStack[calls - 1];
+
+                // determine the next successor of v
+                int w = -1;
+                if (v < n1) {
+                    int b = can.nextCandidate(v, nodeCursor[v]);
+                    if (b != -1 && b == match1[v]) {
+                        b = can.nextCandidate(v, b + 1);
+                    }
+                    if (b != -1) {
+                        nodeCursor[v] = b + 1;
+                        w = n1 + b;
+                    }
+                } else if (nodeCursor[v] == 0) {
+                    nodeCursor[v] = 1;
+                    w = match2[v - n1];
+                }
+
+                if (w == -1) {
+
+                    // all successors of v have been visited
+                    calls--;
+                    if (lowLink[v] == index[v]) {
+                        int x;
+                        do {
+                            x = tarjanStack[--stackSize];
+                            onStack[x] = false;
+                            component[x] = components;
+                        } while (x != v);
+                        components++;
+                    }
+                    if (calls > 0) {
+                        int parent = callStack[calls - 1];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+
+                } else if (index[w] == -1) {
+
+                    // descend into w
+                    index[w] = lowLink[w] = counter++;
+                    nodeCursor[w] = 0;
+                    tarjanStack[stackSize++] = w;
+                    onStack[w] = true;
+                    callStack[calls++] = w;
+
+                } else if (onStack[w]) {
+                    lowLink[v] = Math.min(lowLink[v], index[w]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register an inconsistent candidate.
+     */
+    private void addRemoval(int atom, int candidate) {
+        if (2 * removalCount == removals.length) {
+            removals = Arrays.copyOf(removals, 2 * removals.length);
+        }
+        removals[2 * removalCount] = atom;
+        removals[2 * removalCount + 1] = candidate;
+        removalCount++;
+    }
+}
@@ -1,16 +1,23 @@
 package met.algorithm;
 
 import met.molecule.Atom;
+import met.helper.Hashing;
 import met.interfaces.Fingerprint;
+import met.interfaces.LongFingerprint;
 
 /**
  * Create a fingerprint from the properties of an atom.
  */
-public class AtomFingerprint implements Fingerprint<Atom> {
+public class AtomFingerprint implements Fingerprint<Atom>, LongFingerprint<Atom> {
 
     @Override
     public int fingerprint(Atom x) {
     //   System.out.println("AtomFing: " + x.getID() + " " + x.getProperties().toString());
         return x.getProperties().hashCode();
     }
+
+    @Override
+    public long longFingerprint(Atom x) {
+        return Hashing.combine(x.getProperties().getInvariantKey(), x.getProperties().getNeighborhoodDescriptor());
+    }
 }
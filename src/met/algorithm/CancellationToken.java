@@ -0,0 +1,29 @@
+package met.algorithm;
+
+/**
+ * A flag by which a running equivalence test can be asked to stop.
+ * <p>
+ * The search checks the token regularly. Once cancelled, the test ends with the
+ * outcome UNKNOWN, unless it has been decided before. The token can be shared by
+ * any number of tests, e.g. to stop a whole partitioning run.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Request all tests using this token to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Return whether cancel() has been called.
+     *
+     * @return
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -1,15 +1,20 @@
 package met.algorithm;
 
-import met.helper.EquivalenceClass;
-import met.helper.Partition;
+import met.helper.Hashing;
+import met.helper.Sorting;
 import met.molecule.Atom;
+import met.molecule.AtomProperties;
 import met.molecule.Molecule;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * To each atom v in g1 is assigned a set of atoms in g2 that share the same
  * atom properties. This set of atoms is called the candidate set of atom v.
+ * <p>
+ * Vice versa, each atom w in g2 is assigned the set of atoms in g1 whose
+ * candidate set contains w (the inverse candidate set of w). Both directions
+ * are kept in a single store so that they cannot diverge.
  */
 class CandidateManager {
 
@@ -17,19 +22,49 @@ class CandidateManager {
     private Molecule g1;
     private Molecule g2;
 
+    // number of atoms in g1 and g2
+    private int n1;
+    private int n2;
+
+    // number of 64-bit words needed to store a subset of atoms of g1 (g2)
+    private int words1;
+    private int words2;
+
     /*
-     * Each atom in g1 is associated to a list of atom in g2 that have the same
-     * atom properties. Thus, if x is an atom from mol1, then candidates.get(x)
-     * stores a list of all atoms in mol2 that are equivalent to x.
+     * The candidate sets are stored as bitsets that are indexed by atom ids.
+     *
+     * The candidate set of atom i in g1 occupies the words2 words starting at
+     * candidates1[i * words2]. Bit j of this row is set if and only if atom j
+     * in g2 is a candidate of atom i.
+     *
+     * Symmetrically, the inverse candidate set of atom j in g2 occupies the
+     * words1 words starting at candidates2[j * words1]. Bit i of this row is set
+     * if and only if bit j is set in the row of atom i in candidates1.
      */
-    private Map<Atom, Collection<Atom>> candidates;
+    private long[] candidates1;
+    private long[] candidates2;
+
+    // number of candidates of each atom in g1 and g2
+    private int[] size1;
+    private int[] size2;
+
+    // work arrays: the atoms of g2 sorted by the hash values of their properties
+    private long[] keys2;
+    private int[] order2;
 
     // a logbook that registers each removal action
     ChangeLog log;
 
+    /**
+     * Create a candidate manager without candidate sets. They are created by
+     * initialize() or initializeSubstructure().
+     */
+    CandidateManager() {
+    }
+
     /**
      * Create a candidate manager that holds and updates for each atom in
-     * met.molecule 1 a list of equivalent atoms in met.molecule 2.
+     * molecule 1 a set of equivalent atoms in molecule 2, and vice versa.
      *
      * @param g1
      * @param g2
@@ -37,88 +72,264 @@ class CandidateManager {
     public CandidateManager(
             Molecule g1,
             Molecule g2) {
+        initialize(g1, g2);
+    }
+
+    /**
+     * (Re-)initialize the candidate sets for two molecules.
+     * <p>
+     * The storage of the candidate sets is reused and only grows if the molecules
+     * are larger than all molecules seen before.
+     *
+     * @param g1
+     * @param g2
+     */
+    void initialize(Molecule g1, Molecule g2) {
+
+        prepare(g1, g2);
+
+        // sort the atoms of g2 by a hash value of their properties
+        for (int atom2 = 0; atom2 < n2; atom2++) {
+            keys2[atom2] = key(g2.getAtom(atom2).getProperties());
+            order2[atom2] = atom2;
+        }
+        Sorting.sort(keys2, order2, 0, n2);
+
+        // for each atom in g1
+        for (Atom atom1 : g1.getAtoms()) {
+
+            AtomProperties prop1 = atom1.getProperties();
+            long key = key(prop1);
+
+            // find the first atom in g2 with the same hash value
+            int lo = 0;
+            int hi = n2;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys2[mid] < key)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+
+            // assign the set of atoms with the same properties to atom1
+            for (int j = lo; j < n2 && keys2[j] == key; j++) {
+                Atom atom2 = g2.getAtom(order2[j]);
+                if (prop1.equals(atom2.getProperties())) {
+                    set(atom1.getID(), atom2.getID());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepare empty candidate sets for two molecules, reusing the storage of previous molecules.
+     */
+    private void prepare(Molecule g1, Molecule g2) {
 
         this.g1 = g1;
         this.g2 = g2;
 
-        // initialize candidate sets
-        candidates = new HashMap<>();
+        n1 = g1.getAtomCount();
+        n2 = g2.getAtomCount();
+        words1 = (n1 + 63) >>> 6;
+        words2 = (n2 + 63) >>> 6;
 
-        // create fingerprints of atoms
-        AtomFingerprint fp = new AtomFingerprint();
+        // initialize empty candidate sets
+        if (candidates1 == null || candidates1.length < n1 * words2) {
+            candidates1 = new long[n1 * words2];
+        } else {
+            Arrays.fill(candidates1, 0, n1 * words2, 0L);
+        }
+        if (candidates2 == null || candidates2.length < n2 * words1) {
+            candidates2 = new long[n2 * words1];
+        } else {
+            Arrays.fill(candidates2, 0, n2 * words1, 0L);
+        }
+        if (size1 == null || size1.length < n1) {
+            size1 = new int[n1];
+        } else {
+            Arrays.fill(size1, 0, n1, 0);
+        }
+        if (size2 == null || size2.length < n2) {
+            size2 = new int[n2];
+            keys2 = new long[n2];
+            order2 = new int[n2];
+        } else {
+            Arrays.fill(size2, 0, n2, 0);
+        }
+    }
 
-        // test whether two atoms have the same set of properties
-        AtomEquivalence eq = new AtomEquivalence();
+    /**
+     * (Re-)initialize the candidate sets for a substructure search of query g1 in target g2.
+     * <p>
+     * The candidate set of an atom in g1 contains each atom in g2 whose properties contain
+     * the properties of the atom (see AtomProperties.isContainedIn) and which has at least
+     * as many neighbors.
+     *
+     * @param g1 Query.
+     * @param g2 Target.
+     */
+    void initializeSubstructure(Molecule g1, Molecule g2) {
 
-        // partition g2 into classes of equivalent atoms that share the same properties
-        Partition<Atom> part2 = new Partition<>(g2.getAtoms(), eq, fp);
+        prepare(g1, g2);
 
-        // for each atom in g1
         for (Atom atom1 : g1.getAtoms()) {
 
-            // determine all atoms in g2 with the same properties as atom1
-            EquivalenceClass<Atom> equivalentAtoms = part2.getEquivalentItems(atom1);
-
-            // create a copy of the equivalence class
-            List<Atom> candidateSet = new ArrayList<>(equivalentAtoms.getItems());
+            AtomProperties prop1 = atom1.getProperties();
+            int degree1 = g1.getDegree(atom1.getID());
 
-            // assign the set of equivalent atoms to atom1
-            candidates.put(atom1, candidateSet);
+            for (Atom atom2 : g2.getAtoms()) {
+                if (prop1.isContainedIn(atom2.getProperties()) && degree1 <= g2.getDegree(atom2.getID())) {
+                    set(atom1.getID(), atom2.getID());
+                }
+            }
         }
+    }
 
-        /*System.out.println("EQ of g1");
-        for (met.molecule.Atom a : g1.getAtoms()) {
-            Collection<met.molecule.Atom> all = candidates.get(a);
-            System.out.println(a.getID() + ": ");
-            for (met.molecule.Atom a_current : all) {
-                System.out.print(a_current.getID() + ", ");
-            }
-            System.out.println();
-        }*/
-        //    System.exit(0);
+    /**
+     * Return a hash value of the atom properties. Atoms with equal properties have equal hash values.
+     */
+    private static long key(AtomProperties p) {
+        return Hashing.combine(p.getInvariantKey(), p.getNeighborhoodDescriptor());
+    }
 
+    /**
+     * Create a copy of the candidate sets of another candidate manager.
+     * The copy has no logbook.
+     *
+     * @param other
+     */
+    CandidateManager(CandidateManager other) {
+        g1 = other.g1;
+        g2 = other.g2;
+        n1 = other.n1;
+        n2 = other.n2;
+        words1 = other.words1;
+        words2 = other.words2;
+        candidates1 = other.candidates1.clone();
+        candidates2 = other.candidates2.clone();
+        size1 = other.size1.clone();
+        size2 = other.size2.clone();
     }
 
     /**
-     * Return the candidate list of a certain atom in g1.
+     * Return the number of candidates of a certain atom in g1.
      *
-     * @param atom1 met.molecule.Atom in g1.
+     * @param atom1 Atom id in g1.
      * @return
      */
-    public Collection<Atom> getCandidatesOfAtom(Atom atom1) {
-        return candidates.get(atom1);
+    public int getCandidateCount(int atom1) {
+        return size1[atom1];
     }
 
     /**
-     * Remove a candidate from the candidate set of a certain node.
+     * Return the number of atoms in g1 that have a certain atom of g2 as candidate.
      *
-     * @param node      Node whose candidate set will be purged from candidate.
-     * @param candidate Candidate which will be removed.
+     * @param atom2 Atom id in g2.
+     * @return
      */
-    public void removeCandidate(Atom atom, Atom candidate) {
+    public int getInverseCandidateCount(int atom2) {
+        return size2[atom2];
+    }
 
-        if (!candidates.get(atom).contains(candidate)) {
-            System.out.println("Warning! " + candidate + " not in candidate list of atom " + atom);
-            System.exit(0);
+    /**
+     * Return the total number of (atom, candidate) pairs.
+     *
+     * @return
+     */
+    public int getTotalCandidateCount() {
+        int total = 0;
+        for (int atom1 = 0; atom1 < n1; atom1++) {
+            total += size1[atom1];
         }
+        return total;
+    }
+
+    /**
+     * Test whether atom2 is a candidate of atom1.
+     *
+     * @param atom1 Atom id in g1.
+     * @param atom2 Atom id in g2.
+     * @return
+     */
+    public boolean isCandidate(int atom1, int atom2) {
+        return (candidates1[atom1 * words2 + (atom2 >>> 6)] & (1L << atom2)) != 0;
+    }
+
+    /**
+     * Return the smallest candidate of atom1 whose id is at least from, or -1 if there is none.
+     * <p>
+     * Use {@code for (int c = nextCandidate(a, 0); c != -1; c = nextCandidate(a, c + 1))}
+     * to iterate over the candidate set of atom a. The candidate c may be removed inside the loop.
+     *
+     * @param atom1 Atom id in g1.
+     * @param from  Atom id in g2.
+     * @return
+     */
+    public int nextCandidate(int atom1, int from) {
+        return nextSetBit(candidates1, atom1 * words2, words2, from);
+    }
+
+    /**
+     * Return the smallest atom in g1 whose id is at least from and which has atom2 as candidate,
+     * or -1 if there is none.
+     *
+     * @param atom2 Atom id in g2.
+     * @param from  Atom id in g1.
+     * @return
+     */
+    public int nextInverseCandidate(int atom2, int from) {
+        return nextSetBit(candidates2, atom2 * words1, words1, from);
+    }
+
+    /**
+     * Remove a candidate from the candidate set of a certain atom.
+     *
+     * @param atom1     Atom id in g1 whose candidate set will be purged from candidate.
+     * @param candidate Atom id in g2 which will be removed.
+     */
+    public void removeCandidate(int atom1, int candidate) {
+
+        if (!isCandidate(atom1, candidate))
+            throw new IllegalStateException("Error: " + candidate + " is not in the candidate list of atom " + atom1 + "!");
 
         // remove candidate
-        candidates.get(atom).remove(candidate);
-        log.registerRemoval(this, atom, candidate);
+        clear(atom1, candidate);
+        log.registerRemoval(atom1, candidate);
     }
 
     /**
-     * Remove all candidates of a certain node.
+     * Remove all candidates of a certain atom in g1.
+     *
+     * @param atom1 Atom id in g1.
      */
-    public void clearCandidateListOfAtom(Atom atom) {
+    public void clearCandidatesOfAtom(int atom1) {
+        for (int c = nextCandidate(atom1, 0); c != -1; c = nextCandidate(atom1, c + 1)) {
+            removeCandidate(atom1, c);
+        }
+    }
 
-        // remove candidates
-        for (Atom candidate : getCandidatesOfAtom(atom)) {
-            log.registerRemoval(this, atom, candidate);
+    /**
+     * Remove a certain atom in g2 from all candidate sets.
+     *
+     * @param atom2 Atom id in g2.
+     */
+    public void clearInverseCandidatesOfAtom(int atom2) {
+        for (int a = nextInverseCandidate(atom2, 0); a != -1; a = nextInverseCandidate(atom2, a + 1)) {
+            removeCandidate(a, atom2);
         }
-        candidates.get(atom).clear();
     }
 
+    /**
+     * Re-insert a previously removed candidate. Only to be used by the change log.
+     *
+     * @param atom1     Atom id in g1.
+     * @param candidate Atom id in g2.
+     */
+    void restoreCandidate(int atom1, int candidate) {
+        set(atom1, candidate);
+    }
 
     /**
      * Define a logfile which tracks all changes.
@@ -129,6 +340,51 @@ class CandidateManager {
         this.log = log;
     }
 
+    /**
+     * Add candidate atom2 to atom1 (in both directions).
+     */
+    private void set(int atom1, int atom2) {
+        candidates1[atom1 * words2 + (atom2 >>> 6)] |= 1L << atom2;
+        candidates2[atom2 * words1 + (atom1 >>> 6)] |= 1L << atom1;
+        size1[atom1]++;
+        size2[atom2]++;
+    }
+
+    /**
+     * Remove candidate atom2 from atom1 (in both directions).
+     */
+    private void clear(int atom1, int atom2) {
+        candidates1[atom1 * words2 + (atom2 >>> 6)] &= ~(1L << atom2);
+        candidates2[atom2 * words1 + (atom1 >>> 6)] &= ~(1L << atom1);
+        size1[atom1]--;
+        size2[atom2]--;
+    }
+
+    /**
+     * Find the next set bit within a row of words.
+     *
+     * @param bits   Bitset storage.
+     * @param offset Index of the first word of the row.
+     * @param words  Number of words per row.
+     * @param from   Bit index at which the search starts.
+     * @return Index of the next set bit, or -1.
+     */
+    private static int nextSetBit(long[] bits, int offset, int words, int from) {
+
+        int w = from >>> 6;
+        if (w >= words)
+            return -1;
+
+        long word = bits[offset + w] & (-1L << from);
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == words)
+                return -1;
+            word = bits[offset + w];
+        }
+    }
+
     /**
      * Return candidate lists formatted as string.
      *
@@ -136,12 +392,11 @@ class CandidateManager {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Atom atom1 : g1.getAtoms()) {
-            Collection<Atom> cand = getCandidatesOfAtom(atom1);
-            if (!cand.isEmpty()) {
-                sb.append(atom1.getID()).append(":");
-                for (Atom candidate : cand) {
-                    sb.append(" ").append(candidate.getID());
+        for (int atom1 = 0; atom1 < n1; atom1++) {
+            if (size1[atom1] > 0) {
+                sb.append(atom1).append(":");
+                for (int c = nextCandidate(atom1, 0); c != -1; c = nextCandidate(atom1, c + 1)) {
+                    sb.append(" ").append(c);
                 }
                 sb.append(System.lineSeparator());
             }
@@ -0,0 +1,325 @@
+package met.algorithm;
+
+import met.helper.IndexPriorityQueue;
+import met.molecule.Atom;
+import met.molecule.Molecule;
+
+import java.util.Arrays;
+
+/**
+ * Domain and propagation core shared by the searches for atom mappings from a
+ * molecule graph g1 into a molecule graph g2 (METDefault, SubstructureSearch).
+ * <p>
+ * To each atom in g1 is assigned a set of candidate atoms in g2, held by a
+ * CandidateManager. All removals of candidates are registered in a ChangeLog, so
+ * that the search can return to an earlier state by backtrack(). The unassigned
+ * atoms in g1 are kept in a priority queue ordered by their number of candidates.
+ * <p>
+ * Each reduction of a candidate set is propagated to the unassigned neighbors of
+ * the reduced atom by forwardCheck() (arc consistency): a candidate of atom w
+ * survives only if it has a neighbor with the same bond label which is a candidate
+ * of each unassigned neighbor u of w. The subclasses decide how an assignment
+ * reduces the candidate sets (attach), and whether the mapping must be onto g2.
+ */
+abstract class CandidatePropagation {
+
+    // the molecule graphs: atoms of g1 are mapped onto atoms of g2
+    protected Molecule g1;
+    protected Molecule g2;
+
+    // assignment[i] is the id of the atom in g2 that is assigned to atom i in g1, or -1
+    protected int[] assignment;
+
+    /*
+     * Whether an atom in g2 is assigned to some atom in g1, or null if the mapping
+     * need not be onto g2. If it is not null, an unassigned atom in g2 that has lost
+     * its last preimage candidate makes the current assignment inconsistent.
+     */
+    protected boolean[] assigned2;
+
+    // candidate sets, logbook of their changes, and the unassigned atoms of g1 ordered by their number of candidates
+    protected CandidateManager can;
+    protected ChangeLog log;
+    protected IndexPriorityQueue pq;
+
+    // rank by which ties in the priority queue are broken: atoms with more neighbors have smaller ranks
+    protected int[] degreeRank;
+
+    // atoms in g1 whose priority has changed since the last priority update
+    protected int[] priorityChanged;
+    protected int priorityChangedCount;
+    protected boolean[] isPriorityChanged;
+
+    /*
+     * The atoms in g1 whose candidate sets have been reduced but not yet
+     * propagated are stored in a circular work queue.
+     */
+    protected int[] queue;
+    protected int queueHead;
+    protected int queueSize;
+    protected boolean[] inQueue;
+
+    // whether some unassigned atom in g2 has lost its last preimage candidate
+    protected boolean wipeout;
+
+    // optional look-ahead that checks the injectivity of the mapping, or null
+    protected AllDifferent allDifferent;
+
+    /**
+     * Allocate the work arrays of the propagation for n atoms in g1 (unless they are
+     * large enough already) and reset them.
+     *
+     * @param n Number of atoms in g1.
+     */
+    protected void resetPropagation(int n) {
+
+        if (priorityChanged == null || priorityChanged.length < n) {
+            priorityChanged = new int[n];
+            isPriorityChanged = new boolean[n];
+            queue = new int[n];
+            inQueue = new boolean[n];
+            degreeRank = new int[n];
+        }
+        Arrays.fill(inQueue, 0, n, false);
+        Arrays.fill(isPriorityChanged, 0, n, false);
+        queueHead = 0;
+        queueSize = 0;
+        priorityChangedCount = 0;
+        wipeout = false;
+    }
+
+    /**
+     * Insert all atoms of g1 into the priority queue and into the work queue of the
+     * forward check.
+     */
+    protected void initializePriorities() {
+
+        int n = g1.getAtomCount();
+
+        if (pq == null) {
+            pq = new IndexPriorityQueue(n);
+        } else {
+            pq.clear(n);
+        }
+
+        /*
+         * Among atoms with equally many candidates, atoms with more neighbors are
+         * chosen first, as their assignment restricts more candidate sets.
+         */
+        int maxDegree = 0;
+        for (Atom atom1 : g1.getAtoms()) {
+            degreeRank[atom1.getID()] = g1.getDegree(atom1.getID());
+            maxDegree = Math.max(maxDegree, degreeRank[atom1.getID()]);
+        }
+        for (int i = 0; i < n; i++) {
+            degreeRank[i] = maxDegree - degreeRank[i];
+        }
+        pq.setTieBreakingRanks(degreeRank, n);
+
+        // the priority of an atom is the size of its candidate set
+        for (int i = 0; i < n; i++) {
+            pq.add(i, can.getCandidateCount(i));
+        }
+
+        // initially, each candidate set needs to be checked for consistency with its neighbors
+        for (int i = 0; i < n; i++) {
+            enqueue(i);
+        }
+    }
+
+    /**
+     * Remove a candidate from the candidate set of an atom in g1 and schedule
+     * the atom for propagation.
+     *
+     * @param atom1     Atom id in g1.
+     * @param candidate Atom id in g2.
+     */
+    protected void prune(int atom1, int candidate) {
+
+        can.removeCandidate(atom1, candidate);
+
+        // an unassigned atom in g2 without any preimage can never be reached
+        if (assigned2 != null && !assigned2[candidate] && can.getInverseCandidateCount(candidate) == 0) {
+            wipeout = true;
+        }
+
+        // the candidate set of an assigned atom is not propagated
+        if (assignment[atom1] == -1) {
+            markPriorityChanged(atom1);
+            enqueue(atom1);
+        }
+    }
+
+    /**
+     * Withdraw all removals of candidates since the given checkpoint of the logbook.
+     *
+     * @param mark Checkpoint.
+     */
+    protected void backtrack(int mark) {
+
+        // the restored candidate sets change the priority of their atoms
+        for (int i = log.size() - 1; i >= mark; i--) {
+            markPriorityChanged(log.getAtom(i));
+        }
+
+        log.undo(can, mark);
+        updatePriorities();
+    }
+
+    /**
+     * Remember that the priority of an atom in g1 needs to be updated.
+     *
+     * @param atom1 Atom id in g1.
+     */
+    private void markPriorityChanged(int atom1) {
+        if (!isPriorityChanged[atom1]) {
+            isPriorityChanged[atom1] = true;
+            priorityChanged[priorityChangedCount++] = atom1;
+        }
+    }
+
+    /**
+     * Set the priority of each marked atom in the priority queue to the size of its candidate set.
+     */
+    private void updatePriorities() {
+        for (int i = 0; i < priorityChangedCount; i++) {
+            int atom = priorityChanged[i];
+            if (pq.contains(atom)) {
+                pq.changePriority(atom, can.getCandidateCount(atom));
+            }
+            isPriorityChanged[atom] = false;
+        }
+        priorityChangedCount = 0;
+    }
+
+    /**
+     * Add an atom of g1 to the work queue of the forward check, unless it is already included.
+     *
+     * @param atom1 Atom id in g1.
+     */
+    private void enqueue(int atom1) {
+        if (!inQueue[atom1]) {
+            inQueue[atom1] = true;
+            queue[(queueHead + queueSize++) % queue.length] = atom1;
+        }
+    }
+
+    /**
+     * Remove and return the first atom of the work queue of the forward check.
+     *
+     * @return Atom id in g1.
+     */
+    private int dequeue() {
+        int atom1 = queue[queueHead];
+        queueHead = (queueHead + 1) % queue.length;
+        queueSize--;
+        inQueue[atom1] = false;
+        return atom1;
+    }
+
+    /**
+     * Check whether an atom mapping is still possible.
+     * <p>
+     * The reductions of all candidate sets in the work queue are propagated until
+     * each candidate of an unassigned atom u has, for each unassigned neighbor w of u,
+     * an adjacent atom which is a candidate of w (arc consistency).
+     * <p>
+     * If the all-different look-ahead is enabled, the candidates that cannot be part
+     * of any injective mapping are removed as well, and the propagation is repeated
+     * until neither removes further candidates.
+     *
+     * @return False, if some atom has lost all of its candidates.
+     */
+    protected boolean forwardCheck() {
+
+        boolean consistent = propagateArcs();
+
+        while (consistent && allDifferent != null) {
+
+            if (!allDifferent.filter(can, assignment)) {
+                consistent = false;
+                break;
+            }
+
+            if (allDifferent.getRemovalCount() == 0)
+                break;
+
+            for (int i = 0; i < allDifferent.getRemovalCount(); i++) {
+                prune(allDifferent.getRemovalAtom(i), allDifferent.getRemovalCandidate(i));
+            }
+
+            consistent = propagateArcs();
+        }
+
+        updatePriorities();
+        return consistent;
+    }
+
+    /**
+     * Propagate the reductions of all candidate sets in the work queue (arc consistency).
+     *
+     * @return False, if some atom has lost all of its candidates.
+     */
+    private boolean propagateArcs() {
+
+        boolean consistent = !wipeout;
+
+        while (consistent && queueSize > 0) {
+
+            int atom1 = dequeue();
+
+            // the reduced candidate set of atom1 must not be empty
+            if (can.getCandidateCount(atom1) == 0) {
+                consistent = false;
+                break;
+            }
+
+            // revise the candidate sets of all unassigned neighbors
+            for (int k = 0; k < g1.getDegree(atom1); k++) {
+                int n1 = g1.getAdjacentAtom(atom1, k);
+                if (assignment[n1] == -1 && !revise(n1, atom1, g1.getAdjacentBondLabel(atom1, k))) {
+                    consistent = false;
+                    break;
+                }
+            }
+        }
+
+        // clear the work queue
+        while (queueSize > 0) {
+            dequeue();
+        }
+        wipeout = false;
+
+        return consistent;
+    }
+
+    /**
+     * Remove each candidate of atom w that is not adjacent to any candidate of atom u
+     * by a bond with the same label, where u and w are adjacent atoms in g1.
+     *
+     * @param w     Atom id in g1 whose candidate set is revised.
+     * @param u     Atom id in g1 adjacent to w.
+     * @param label Label of the bond between u and w.
+     * @return False, if an atom mapping is no longer possible.
+     */
+    private boolean revise(int w, int u, int label) {
+
+        for (int candidate2 = can.nextCandidate(w, 0); candidate2 != -1; candidate2 = can.nextCandidate(w, candidate2 + 1)) {
+
+            // test whether candidate2 is supported by some candidate of u
+            boolean supported = false;
+            for (int k = 0; k < g2.getDegree(candidate2); k++) {
+                if (g2.getAdjacentBondLabel(candidate2, k) == label && can.isCandidate(u, g2.getAdjacentAtom(candidate2, k))) {
+                    supported = true;
+                    break;
+                }
+            }
+
+            if (!supported) {
+                prune(w, candidate2);
+            }
+        }
+
+        return can.getCandidateCount(w) > 0 && !wipeout;
+    }
+}
@@ -0,0 +1,77 @@
+package met.algorithm;
+
+import met.helper.Hashing;
+
+/**
+ * A 128-bit hash of the canonical certificate of a molecule.
+ * <p>
+ * Equivalent molecules have the same canonical form. Non-equivalent molecules have
+ * different canonical forms unless their certificates collide in both 64-bit halves,
+ * which can be neglected even for very large molecule libraries.
+ */
+public class CanonicalForm {
+
+    // seeds of the two hash values
+    private static final long SEED_HIGH = 0x6A09E667F3BCC908L;
+    private static final long SEED_LOW = 0xBB67AE8584CAA73BL;
+
+    private final long high;
+    private final long low;
+
+    /**
+     * Create the canonical form of a certificate.
+     *
+     * @param atomCount   Number of atoms.
+     * @param certificate Certificate of the canonically labeled molecule.
+     */
+    CanonicalForm(int atomCount, long[] certificate) {
+
+        long h = Hashing.combine(SEED_HIGH, atomCount);
+        long l = Hashing.combine(SEED_LOW, certificate.length);
+        for (long x : certificate) {
+            h = Hashing.combine(h, x);
+            l = Hashing.combine(l, Long.rotateLeft(x, 32) ^ SEED_HIGH);
+        }
+
+        this.high = h;
+        this.low = l;
+    }
+
+    /**
+     * Return the upper 64 bits of the canonical form.
+     *
+     * @return
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Return the lower 64 bits of the canonical form.
+     *
+     * @return
+     */
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (!(o instanceof CanonicalForm))
+            return false;
+
+        CanonicalForm other = (CanonicalForm) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -0,0 +1,57 @@
+package met.algorithm;
+
+import met.helper.FingerprintIndex;
+
+import java.util.Arrays;
+
+/**
+ * Map from canonical forms to the indices of equivalence classes, shared by the
+ * partitions that classify molecules by their canonical forms.
+ * <p>
+ * The classes are found by the lower half of their canonical form in a
+ * FingerprintIndex. Classes whose lower halves collide are chained by an int array
+ * and told apart by the upper half, so that no CanonicalForm object is kept.
+ */
+class CanonicalFormIndex {
+
+    // lower half of the canonical form to the latest class with this lower half
+    private final FingerprintIndex classWithLow = new FingerprintIndex();
+
+    // upper half of the canonical form of each class, and next (earlier inserted) class with the same lower half, or -1
+    private long[] high = new long[16];
+    private int[] nextWithLow = new int[16];
+
+    /**
+     * Return the class with a certain canonical form, or -1 if there is none.
+     *
+     * @param form
+     * @return
+     */
+    int find(CanonicalForm form) {
+        for (int c = classWithLow.get(form.getLow()); c != -1; c = nextWithLow[c]) {
+            if (high[c] == form.getHigh())
+                return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Register a new class with a canonical form that has not been inserted before.
+     *
+     * @param form
+     * @param c    Non-negative index of the class.
+     */
+    void insert(CanonicalForm form, int c) {
+
+        if (c >= high.length) {
+            int capacity = Math.max(2 * high.length, c + 1);
+            high = Arrays.copyOf(high, capacity);
+            nextWithLow = Arrays.copyOf(nextWithLow, capacity);
+        }
+
+        // the new class becomes the head of the chain of its lower half
+        high[c] = form.getHigh();
+        nextWithLow[c] = classWithLow.get(form.getLow());
+        classWithLow.put(form.getLow(), c);
+    }
+}
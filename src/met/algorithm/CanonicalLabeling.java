@@ -0,0 +1,592 @@
+package met.algorithm;
+
+import met.helper.Hashing;
+import met.helper.Sorting;
+import met.molecule.AtomProperties;
+import met.molecule.Bond;
+import met.molecule.Molecule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compute a canonical labeling of a molecule graph.
+ * <p>
+ * A canonical labeling assigns to each atom a position 0, 1, ..., n-1 such that
+ * two molecules are equivalent if and only if relabeling their atoms by these
+ * positions yields identical graphs. Thus, equivalent molecules get the same
+ * canonical form and the equivalence test reduces to a comparison of hash values.
+ * <p>
+ * The labeling is computed by individualization and refinement (like nauty):
+ * <p>
+ * 1. Atoms are arranged in an ordered partition of cells. Initially, the cells
+ * are the classes of atoms with equal neighborhood descriptors.
+ * <p>
+ * 2. The partition is refined until the atoms of each cell have the same number
+ * of neighbors in each cell (equitable partition).
+ * <p>
+ * 3. If some cell has more than one atom, each atom of the first such cell is
+ * individualized in turn (moved into a cell of its own) and the search continues
+ * recursively. Each leaf of this search tree is a discrete partition, i.e. a
+ * labeling of the atoms.
+ * <p>
+ * Of all leaves, the one with the largest certificate (the relabeled graph) is
+ * chosen. To avoid visiting the whole search tree, each node is rated by an
+ * invariant of its partition, so that subtrees that cannot contain the best leaf
+ * are skipped. Two leaves with the same certificate differ by an automorphism of
+ * the molecule. The automorphisms found in this way are used to skip children
+ * that are symmetric to children that have already been visited.
+ */
+public class CanonicalLabeling {
+
+    /*
+     * Each atom is encoded in the certificate by its invariant key. If the key
+     * has overflown, it is followed by ATOM_FIELDS longs holding the properties
+     * themselves, so that equal certificates still imply equal properties.
+     */
+    private static final int ATOM_FIELDS = 8;
+    private int overflowAtoms;
+
+    // maximal number of automorphisms that are stored
+    private static final int MAX_GENERATORS = 256;
+
+    // the clock and cancellation token of the control are checked every CLOCK_INTERVAL + 1 search nodes
+    private static final int CLOCK_INTERVAL = 15;
+
+    /*
+     * Control of the search that requested the labeling (or null). The nodes of the
+     * labeling count against its node limit, and the labeling stops as soon as the
+     * control is stopped.
+     */
+    private final SearchControl control;
+    private long nodes;
+    private boolean aborted;
+
+    // the molecule graph
+    private Molecule g;
+    private int n;
+
+    // canonical position of each atom, and the atom at each canonical position
+    private int[] label;
+    private int[] order;
+
+    // automorphisms found during the search
+    private List<int[]> automorphisms;
+
+    // the canonical form
+    private CanonicalForm form;
+
+    /*
+     * State of the search. The partition of a search node at level k consists of
+     *
+     *  lab[k]:     the atoms ordered by cells,
+     *  color[k]:   for each atom, the position of the first atom of its cell,
+     *  cellEnd[k]: for the first position s of each cell, the position after its last atom.
+     */
+    private int[][] lab;
+    private int[][] color;
+    private int[][] cellEnd;
+
+    // the atoms individualized on the path from the root to the current node
+    private int[] path;
+
+    // node invariants on the path from the root to the current node
+    private long[] pathInvariant;
+
+    // union-find structures of the orbits at each level
+    private int[][] orbit;
+
+    // work arrays of the refinement
+    private long[] signature;
+    private long[] keys;
+
+    // best leaf found so far, and the atoms individualized on the path to it
+    private int[] bestLab;
+    private int[] bestPath;
+    private long[] bestCertificate;
+    private long[] bestInvariant;
+    private int bestDepth = -1;
+
+    // incremented each time a new best leaf is found
+    private int bestVersion;
+
+    /*
+     * If a leaf is mapped onto the best leaf by an automorphism, each leaf below the
+     * deepest common ancestor of both leaves is mapped onto an already visited leaf.
+     * The search then returns to this ancestor, whose level is stored here (or -1).
+     */
+    private int backjumpLevel = -1;
+
+    /**
+     * Compute the canonical labeling of a molecule graph.
+     *
+     * @param molecule Molecule graph.
+     */
+    public CanonicalLabeling(Molecule molecule) {
+        this(molecule, null);
+    }
+
+    /**
+     * Compute the canonical labeling of a molecule graph within the limits of a
+     * search. If the labeling is stopped by the control, only the automorphisms
+     * found so far are available (see isAborted()).
+     *
+     * @param molecule Molecule graph.
+     * @param control  Control of the search that requested the labeling, or null.
+     */
+    CanonicalLabeling(Molecule molecule, SearchControl control) {
+
+        this.control = control;
+        g = molecule;
+        n = molecule.getAtomCount();
+        automorphisms = new ArrayList<>();
+
+        lab = new int[n + 1][];
+        color = new int[n + 1][];
+        cellEnd = new int[n + 1][];
+        orbit = new int[n + 1][];
+        path = new int[n + 1];
+        pathInvariant = new long[n + 1];
+        signature = new long[n];
+        keys = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            if ((g.getAtom(i).getProperties().getInvariantKey() & AtomProperties.OVERFLOW) != 0)
+                overflowAtoms++;
+        }
+
+        /**********************************************************************
+         * Initial partition: atoms are ordered by their neighborhood descriptors.
+         *********************************************************************/
+
+        allocateLevel(0);
+        int[] lab0 = lab[0];
+        for (int i = 0; i < n; i++) {
+            lab0[i] = i;
+            keys[i] = g.getAtom(i).getProperties().getNeighborhoodDescriptor();
+        }
+        Sorting.sort(keys, lab0, 0, n);
+        splitCells(lab0, color[0], cellEnd[0], 0, n);
+
+        /**********************************************************************
+         * Search for the best leaf.
+         *********************************************************************/
+
+        search(0, 0);
+        if (aborted)
+            return;
+
+        /**********************************************************************
+         * Extract the labeling and the canonical form of the best leaf.
+         *********************************************************************/
+
+        order = bestLab != null ? bestLab : new int[0];
+        label = new int[n];
+        for (int p = 0; p < n; p++) {
+            label[order[p]] = p;
+        }
+        form = new CanonicalForm(n, bestCertificate != null ? bestCertificate : new long[0]);
+    }
+
+    /**
+     * Process the search node at the given level.
+     *
+     * @param level Depth of the node.
+     * @param cmp   Comparison of the path from the root to the parent node with the
+     *              path of the best leaf: 0 if equal, positive if greater.
+     */
+    private void search(int level, int cmp) {
+
+        int[] lab = this.lab[level];
+        int[] color = this.color[level];
+        int[] cellEnd = this.cellEnd[level];
+
+        if (control != null && isStopped())
+            return;
+
+        // refine the partition and rate it
+        long invariant = refine(lab, color, cellEnd);
+        pathInvariant[level] = invariant;
+
+        // compare the path with the path of the best leaf
+        if (cmp == 0 && bestDepth != -1) {
+            if (level > bestDepth)
+                cmp = 1;
+            else
+                cmp = Long.compare(invariant, bestInvariant[level]);
+            if (cmp < 0)
+                return;     // the subtree cannot contain a better leaf
+        }
+
+        // find the first cell with more than one atom
+        int target = 0;
+        while (target < n && cellEnd[target] == target + 1) {
+            target = cellEnd[target];
+        }
+
+        // if the partition is discrete, we have reached a leaf
+        if (target >= n) {
+            processLeaf(level, cmp, lab, color);
+            return;
+        }
+
+        int targetEnd = cellEnd[target];
+
+        // the atoms of the target cell that have already been individualized at this node
+        int[] visited = new int[targetEnd - target];
+        int visitedCount = 0;
+        int orbitVersion = -1;
+
+        for (int i = target; i < targetEnd; i++) {
+
+            int v = lab[i];
+
+            // update the orbits if new automorphisms have been found
+            if (orbitVersion != automorphisms.size()) {
+                computeOrbits(level);
+                orbitVersion = automorphisms.size();
+            }
+
+            // skip v if it is symmetric to an atom that has already been visited
+            boolean symmetric = false;
+            for (int k = 0; k < visitedCount && !symmetric; k++) {
+                symmetric = find(orbit[level], visited[k]) == find(orbit[level], v);
+            }
+            if (symmetric)
+                continue;
+            visited[visitedCount++] = v;
+
+            // individualize v in the child node
+            allocateLevel(level + 1);
+            System.arraycopy(lab, 0, this.lab[level + 1], 0, n);
+            System.arraycopy(color, 0, this.color[level + 1], 0, n);
+            System.arraycopy(cellEnd, 0, this.cellEnd[level + 1], 0, n);
+            individualize(this.lab[level + 1], this.color[level + 1], this.cellEnd[level + 1], target, v);
+            path[level] = v;
+
+            int version = bestVersion;
+            search(level + 1, cmp);
+            if (aborted)
+                return;
+
+            // return to the ancestor given by an automorphism
+            if (backjumpLevel != -1) {
+                if (backjumpLevel < level)
+                    return;
+                backjumpLevel = -1;
+            }
+
+            // if the best leaf has been found below this node, the paths agree up to this node
+            if (version != bestVersion) {
+                cmp = 0;
+            }
+        }
+    }
+
+    /**
+     * Count a search node against the limits of the control and test whether the
+     * labeling has to stop.
+     *
+     * @return True, if the labeling has been aborted.
+     */
+    private boolean isStopped() {
+
+        nodes++;
+        if (control.nodeLimit > 0 && nodes >= control.nodeLimit) {
+            control.abort();
+        } else if ((nodes & CLOCK_INTERVAL) == 0) {
+            control.checkClock();
+        }
+
+        aborted = control.isStopped();
+        return aborted;
+    }
+
+    /**
+     * Compare a leaf with the best leaf found so far.
+     */
+    private void processLeaf(int level, int cmp, int[] lab, int[] color) {
+
+        long[] certificate = certificate(lab, color);
+
+        if (bestDepth != -1 && cmp == 0) {
+            if (level < bestDepth)
+                cmp = -1;
+            else
+                cmp = Arrays.compare(certificate, bestCertificate);
+        }
+
+        if (bestDepth == -1 || cmp > 0) {
+
+            // new best leaf
+            bestLab = lab.clone();
+            bestPath = Arrays.copyOf(path, level);
+            bestCertificate = certificate;
+            bestInvariant = Arrays.copyOf(pathInvariant, level + 1);
+            bestDepth = level;
+            bestVersion++;
+
+        } else if (cmp == 0) {
+
+            // both leaves have the same certificate, thus they differ by an automorphism
+            if (automorphisms.size() < MAX_GENERATORS) {
+                int[] gamma = new int[n];
+                for (int p = 0; p < n; p++) {
+                    gamma[lab[p]] = bestLab[p];
+                }
+                automorphisms.add(gamma);
+            }
+
+            // the paths to both leaves agree up to their deepest common ancestor
+            int common = 0;
+            while (common < level && path[common] == bestPath[common]) {
+                common++;
+            }
+            backjumpLevel = common;
+        }
+    }
+
+    /**
+     * Refine a partition until it is equitable.
+     *
+     * @return An invariant of the refined partition.
+     */
+    private long refine(int[] lab, int[] color, int[] cellEnd) {
+
+        boolean changed = true;
+        while (changed) {
+
+            // the signature of an atom represents the multiset of the cells of its neighbors
+            for (int v = 0; v < n; v++) {
+                long sum = 0;
+                for (int k = 0; k < g.getDegree(v); k++) {
+                    sum += Hashing.mix((long) color[g.getAdjacentAtom(v, k)] * Bond.LABEL_COUNT + g.getAdjacentBondLabel(v, k));
+                }
+                signature[v] = sum;
+            }
+
+            // split each cell by the signatures of its atoms
+            changed = false;
+            for (int s = 0; s < n; ) {
+                int e = cellEnd[s];
+                if (e - s > 1) {
+                    for (int i = s; i < e; i++) {
+                        keys[i] = signature[lab[i]];
+                    }
+                    Sorting.sort(keys, lab, s, e);
+                    changed |= splitCells(lab, color, cellEnd, s, e);
+                }
+                s = e;
+            }
+        }
+
+        // the invariant is a hash of the cells and signatures of all atoms
+        long invariant = 0;
+        for (int v = 0; v < n; v++) {
+            invariant += Hashing.combine(color[v], signature[v]);
+        }
+        return invariant;
+    }
+
+    /**
+     * Split the range [s, e) of sorted atoms into cells of equal keys.
+     *
+     * @return True, if the range has been split into more than one cell.
+     */
+    private boolean splitCells(int[] lab, int[] color, int[] cellEnd, int s, int e) {
+
+        boolean split = false;
+        int start = s;
+        for (int i = s; i < e; i++) {
+            if (i > s && keys[i] != keys[i - 1]) {
+                cellEnd[start] = i;
+                start = i;
+                split = true;
+            }
+            color[lab[i]] = start;
+        }
+        if (e > s) {
+            cellEnd[start] = e;
+        }
+        return split;
+    }
+
+    /**
+     * Move an atom of the cell starting at position s into a cell of its own.
+     */
+    private void individualize(int[] lab, int[] color, int[] cellEnd, int s, int v) {
+
+        int e = cellEnd[s];
+
+        // move v to the front of its cell
+        for (int i = s; i < e; i++) {
+            if (lab[i] == v) {
+                lab[i] = lab[s];
+                lab[s] = v;
+                break;
+            }
+        }
+
+        cellEnd[s] = s + 1;
+        cellEnd[s + 1] = e;
+        for (int i = s + 1; i < e; i++) {
+            color[lab[i]] = s + 1;
+        }
+    }
+
+    /**
+     * Create the certificate of a discrete partition: the atom properties in
+     * canonical order, followed by the sorted list of labelled bonds between canonical positions.
+     */
+    private long[] certificate(int[] lab, int[] color) {
+
+        long[] certificate = new long[n + overflowAtoms * ATOM_FIELDS + g.getBondCount()];
+
+        int k = 0;
+        for (int p = 0; p < n; p++) {
+            AtomProperties prop = g.getAtom(lab[p]).getProperties();
+            certificate[k++] = prop.getInvariantKey();
+            if ((prop.getInvariantKey() & AtomProperties.OVERFLOW) == 0)
+                continue;
+            certificate[k++] = prop.getSymbol();
+            certificate[k++] = prop.getFormalCharge();
+            certificate[k++] = prop.getSingleElectronCount();
+            certificate[k++] = prop.getHydrogenCount();
+            certificate[k++] = prop.getDeuteriumCount();
+            certificate[k++] = prop.getNumSingleBonds();
+            certificate[k++] = prop.getNumDoubleBonds();
+            certificate[k++] = prop.getNumTripleBonds();
+        }
+
+        int bondStart = k;
+        for (int p = 0; p < n; p++) {
+            int v = lab[p];
+            for (int j = 0; j < g.getDegree(v); j++) {
+                int q = color[g.getAdjacentAtom(v, j)];
+                if (q > p) {
+                    certificate[k++] = ((long) p * n + q) * Bond.LABEL_COUNT + g.getAdjacentBondLabel(v, j);
+                }
+            }
+        }
+        Arrays.sort(certificate, bondStart, k);
+
+        return certificate;
+    }
+
+    /**
+     * Determine the orbits of the automorphisms that fix each atom on the path to a node.
+     */
+    private void computeOrbits(int level) {
+
+        if (orbit[level] == null) {
+            orbit[level] = new int[n];
+        }
+        int[] parent = orbit[level];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
+        }
+
+        for (int[] gamma : automorphisms) {
+
+            // test whether gamma fixes the path
+            boolean fixes = true;
+            for (int i = 0; i < level && fixes; i++) {
+                fixes = gamma[path[i]] == path[i];
+            }
+
+            if (fixes) {
+                for (int v = 0; v < n; v++) {
+                    int a = find(parent, v);
+                    int b = find(parent, gamma[v]);
+                    if (a != b) {
+                        parent[Math.max(a, b)] = Math.min(a, b);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the representative of the orbit of v.
+     */
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * Allocate the partition arrays of a level, unless already done.
+     */
+    private void allocateLevel(int level) {
+        if (lab[level] == null) {
+            lab[level] = new int[n];
+            color[level] = new int[n];
+            cellEnd[level] = new int[n];
+        }
+    }
+
+    /**
+     * Return the canonical position of each atom: getCanonicalLabels()[i] is the position of atom i.
+     *
+     * @return
+     */
+    public int[] getCanonicalLabels() {
+        checkComplete();
+        return label;
+    }
+
+    /**
+     * Return the atoms in canonical order: getCanonicalOrder()[p] is the id of the atom at position p.
+     *
+     * @return
+     */
+    public int[] getCanonicalOrder() {
+        checkComplete();
+        return order;
+    }
+
+    /**
+     * Return the canonical form of the molecule.
+     *
+     * @return
+     */
+    public CanonicalForm getCanonicalForm() {
+        checkComplete();
+        return form;
+    }
+
+    /**
+     * Return whether the labeling has been stopped by the control of a search
+     * before the best leaf was known. In this case, there is no canonical form, and
+     * the automorphisms found so far generate a (possibly smaller) subgroup.
+     *
+     * @return
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Fail if the labeling has been aborted, as there is no canonical labeling then.
+     */
+    private void checkComplete() {
+        if (aborted)
+            throw new IllegalStateException("Error: The canonical labeling has been aborted!");
+    }
+
+    /**
+     * Return the automorphisms found during the search. Each automorphism is given
+     * as an array gamma such that atom i is mapped to atom gamma[i].
+     * <p>
+     * The automorphisms generate a subgroup of the automorphism group of the molecule.
+     *
+     * @return
+     */
+    public List<int[]> getAutomorphisms() {
+        return automorphisms;
+    }
+}
@@ -1,79 +1,125 @@
 package met.algorithm;
 
-import met.molecule.Atom;
+import java.util.Arrays;
+
+/**
+ * Logbook that registers the removals of candidates, so that they may later be undone.
+ * <p>
+ * Each removal is stored as a pair (atom, candidate) of atom ids on a trail of
+ * primitive integers. A search step takes a checkpoint by calling mark() and
+ * returns to this checkpoint by calling undo(can, mark) while backtracking.
+ */
+public class ChangeLog {
+
+    /*
+     * The i-th removal is stored at positions 2*i (atom) and 2*i+1 (candidate).
+     */
+    private int[] trail;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+    // number of registered removals
+    private int size;
 
-public class ChangeLog {
+    // number of removals registered since the logbook was created, including undone ones
+    private long totalRemovals;
 
     /**
-     * Base class for log entries
+     * Create a logbook that registers the removals of candidates.
+     * These removals may later be undone by calling undo().
+     *
+     * @param capacity Number of removals that may be registered before the trail needs to grow.
      */
-    abstract private class LogEntry {
-        abstract void undo();
+    public ChangeLog(int capacity) {
+        trail = new int[2 * Math.max(capacity, 1)];
     }
 
     /**
-     * Logbook entry.
-     * Each call of can.remove(atom, candidate) is stored.
+     * Register the removal of a candidate from the candidate set of an atom.
+     *
+     * @param atom      Atom id in g1.
+     * @param candidate Atom id in g2.
      */
-    private class RemovalEntry extends LogEntry {
-        CandidateManager can;
-        Atom atom;
-        Atom candidate;
-
-        public RemovalEntry(CandidateManager can, Atom atom, Atom candidate) {
-            this.can = can;
-            this.atom = atom;
-            this.candidate = candidate;
-        }
-
-        /**
-         * undo the call can.remove(node, candidate)
-         */
-        void undo() {
+    public void registerRemoval(int atom, int candidate) {
 
-            //   System.out.println("undoing can.remove(" + atom + ", " + candidate + ")");
-            Collection<Atom> candidates = can.getCandidatesOfAtom(atom);
-            candidates.add(candidate);
+        // the trail only grows if the initial capacity was too small
+        if (2 * size == trail.length) {
+            trail = Arrays.copyOf(trail, 2 * trail.length);
         }
-    }
-
 
-    private List<LogEntry> logbook;     // recorded history of events
+        trail[2 * size] = atom;
+        trail[2 * size + 1] = candidate;
+        size++;
+        totalRemovals++;
+    }
 
     /**
-     * Create a logbook that registers the removals of candidates.
-     * These removals may later be undone by calling undo().
+     * Return the number of removals registered since the logbook was created,
+     * including those that have been undone.
+     *
+     * @return
      */
-    public ChangeLog() {
-        logbook = new ArrayList<>();
+    public long getTotalRemovals() {
+        return totalRemovals;
     }
 
-
     /**
-     * Register the removal of an atom from a certain set.
+     * Remove all registered removals without undoing them, so that the logbook
+     * can be used for another search.
      */
-    public void registerRemoval(CandidateManager can, Atom atom, Atom candidate) {
-        logbook.add(new RemovalEntry(can, atom, candidate));
+    public void clear() {
+        size = 0;
+        totalRemovals = 0;
     }
 
     /**
-     * Undo all changes.
+     * Return a checkpoint that marks the current state of the logbook.
+     *
+     * @return
      */
-    public void undo() {
+    public int mark() {
+        return size;
+    }
 
-        // System.out.println("logbook has " + logbook.size() + " entries");
+    /**
+     * Undo all changes that have been registered after the given checkpoint.
+     *
+     * @param can  Candidate manager whose removals are undone.
+     * @param mark Checkpoint returned by mark().
+     */
+    public void undo(CandidateManager can, int mark) {
 
         // in inverse order
-        for (int i = logbook.size() - 1; i >= 0; i--) {
-            logbook.get(i).undo();
+        while (size > mark) {
+            size--;
+            can.restoreCandidate(trail[2 * size], trail[2 * size + 1]);
         }
+    }
 
-        // clear history
-        logbook.clear();
+    /**
+     * Undo all changes.
+     *
+     * @param can Candidate manager whose removals are undone.
+     */
+    public void undo(CandidateManager can) {
+        undo(can, 0);
+    }
+
+    /**
+     * Return the number of registered removals.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the atom whose candidate set was reduced by the i-th removal.
+     *
+     * @param i Index of the removal.
+     * @return Atom id in g1.
+     */
+    public int getAtom(int i) {
+        return trail[2 * i];
     }
 
 }
@@ -2,11 +2,17 @@ package met.algorithm;
 
 import met.helper.IndexPriorityQueue;
 import met.interfaces.Algorithm;
+import met.interfaces.Outcome;
 import met.molecule.Atom;
 import met.molecule.Molecule;
 import met.molecule.MoleculeProperties;
 
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Test the equivalence of two molecule graphs.
@@ -18,37 +24,88 @@ import java.util.*;
  * <p>
  * holds for all atoms v in Vx.
  */
-public class METDefault implements Algorithm {
-
-    // references to the given met.molecule graphs
-    private Molecule g1;
-    private Molecule g2;
+public class METDefault extends CandidatePropagation implements Algorithm {
 
     // whether g1 and g2 are isomorphic
     private boolean isomorphic = false;
 
-    // met.algorithm function from g1 to g2
+    // whether the search has been aborted by one of its limits before g1 and g2 were found to be (non-)isomorphic
+    private boolean undecided = false;
+
+    // settings of the tests of this engine
+    private SearchSettings settings;
+
+    // met.algorithm function from g1 to g2, created when it is requested for the first time
     private Map<Atom, Atom> mapping;
 
+    // the atom mapping found by the last test as array of atom ids, or null
+    private int[] solution;
+    private int[] solutionBuffer;
+
     /*
-     * To each atom in g1 is assigned a set of atoms in g2 that share the same
-     * atom properties. This set of atoms is called candidate set. As the sets
-     * of candidates are modified during the execution of the met.algorithm, there
-     * are special candidate manager objects that organize the candidate sets.
-     *
-     * Vice versa, each atom in g2 has a candidate set of atoms in g1.
+     * Each level of the search iterates over a copy of the candidate set of
+     * its atom. These copies are stacked on top of each other in a single array.
      */
-    private CandidateManager can1;     // manages the candidate sets of atoms in g1
-    private CandidateManager can2;     // manages the candidate sets of atoms in g2
+    private int[] candidateStack;
+    private int candidateStackSize;
+
+    // refuted[i]: whether the candidate at position i of the candidate stack has been tested without success
+    private boolean[] refuted;
 
     /*
-     * To efficiently select atoms with few candidates, we use a priority queue
-     * that stores the indices of each atom in g1. The priority of each atom is
-     * equal to its number of candidates.
-     *
-     * We will process atoms with smallest priority first.
+     * The search keeps an explicit stack of frames, one for each atom of g1 it
+     * has assigned. Frame d stores the atom, the range of its candidates on the
+     * candidate stack, the position of the currently assigned candidate and the
+     * checkpoint of the logbook before the assignment. Thus, the search can be
+     * suspended after each atom mapping and resumed later on.
      */
-    private IndexPriorityQueue pq;
+    private int depth;
+    private int[] frameAtom;
+    private int[] frameFirst;
+    private int[] frameCount;
+    private int[] frameCurrent;
+    private int[] frameMark;
+    private long[] frameSolutions;          // number of mappings found before the current assignment
+    private boolean[] frameOrbitsComputed;
+
+    // number of atom mappings found so far
+    private long solutionCount;
+
+    // number of atoms assigned outside of the search frames (when counting automorphisms or in parallel tasks)
+    private int fixedCount;
+
+    // whether the current assignment is the atom mapping returned by getAtomMapping()
+    private boolean atSolution;
+
+    // limits and stop flags of the search
+    private SearchControl control;
+
+    // the clock and cancellation token are checked every CLOCK_INTERVAL + 1 loop iterations
+    private static final int CLOCK_INTERVAL = 255;
+
+    // number of search nodes (assignments) and backtracks (withdrawn assignments)
+    private long nodes;
+    private long backtracks;
+    private int ticks;
+
+    // largest number of simultaneously assigned atoms
+    private int maxDepth;
+
+    // statistics of the test, or null if they are not collected
+    private SearchStatistics statistics;
+    private long initialCandidates;
+    private int initialMaxCandidates;
+
+    /*
+     * If an assignment of atom1 to atom2 has been refuted, the assignment of atom1
+     * to any image of atom2 under an automorphism of g2 that fixes all assigned atoms
+     * of g2 fails as well. The automorphisms of g2 are computed when the first
+     * assignment is refuted. For each level of the search, the orbits of those
+     * automorphisms that fix the assigned atoms are stored as union-find forest.
+     */
+    private boolean symmetryPruning;
+    private List<int[]> automorphisms2;
+    private int[][] orbits;
 
 
     /**
@@ -58,214 +115,904 @@ public class METDefault implements Algorithm {
      * @param mol2 Molecule graph.
      */
     public METDefault(Molecule mol1, Molecule mol2) {
+        this(mol1, mol2, new SearchSettings());
+    }
 
-        // create empty hash map
-        mapping = new HashMap<>();
+    /**
+     * Run the default algorithm to test whether mol1 and mol2 are equivalent molecules.
+     *
+     * @param mol1     Molecule graph.
+     * @param mol2     Molecule graph.
+     * @param settings Settings of the search.
+     */
+    public METDefault(Molecule mol1, Molecule mol2, SearchSettings settings) {
+        this(settings);
+        test(mol1, mol2);
+    }
+
+    /**
+     * Create a reusable engine that runs no test yet.
+     * <p>
+     * Each call of test() resets the work arrays of the engine in place and only
+     * grows them if a molecule is larger than all molecules tested before. Thus, an
+     * engine that is reused for many tests hardly allocates any memory. An engine
+     * must not be used by more than one thread at a time; use one engine per thread.
+     *
+     * @param settings Settings of all tests of this engine.
+     */
+    public METDefault(SearchSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Test whether mol1 and mol2 are equivalent molecules.
+     * <p>
+     * The results of the previous test of this engine are discarded. Afterwards,
+     * areEquivalent(), getOutcome(), getAtomMapping(), getAllAtomMappings() and
+     * getStatistics() refer to this test.
+     *
+     * @param mol1 Molecule graph.
+     * @param mol2 Molecule graph.
+     * @return The outcome of the test.
+     */
+    public Outcome test(Molecule mol1, Molecule mol2) {
+
+        // discard the results of the previous test
+        isomorphic = false;
+        undecided = false;
+        atSolution = false;
+        solution = null;
+        mapping = null;
+        statistics = null;
+        g1 = null;
+        g2 = null;
+
+        // the limits of the search start with the test
+        if (control == null) {
+            control = new SearchControl(settings);
+        } else {
+            control.reset(settings);
+        }
+        boolean collect = settings.isCollectStatistics();
+        long startTime = collect ? System.nanoTime() : 0;
+
+        if (!initialize(mol1, mol2, settings)) {
+            if (collect) {
+                collectStatistics(startTime, System.nanoTime(), g1 != null);
+            }
+            return getOutcome();
+        }
+
+        long searchStartTime = collect ? System.nanoTime() : 0;
+
+        // run full met.algorithm check
+        if (settings.getParallelism() > 1 && settings.getForkDepth() > 0) {
+            solution = searchParallel(settings);
+            isomorphic = solution != null;
+        } else {
+            isomorphic = search(false);
+            atSolution = isomorphic;
+            undecided = !isomorphic && control.isAborted();
+
+            // keep a copy, as the assignment changes when further mappings are enumerated
+            if (isomorphic) {
+                int n = g1.getAtomCount();
+                if (solutionBuffer == null || solutionBuffer.length < n) {
+                    solutionBuffer = new int[n];
+                }
+                System.arraycopy(assignment, 0, solutionBuffer, 0, n);
+                solution = solutionBuffer;
+            }
+        }
+
+        if (collect) {
+            collectStatistics(startTime, searchStartTime, true);
+        }
+
+        return getOutcome();
+    }
+
+    /**
+     * Summarize the statistics of the test.
+     *
+     * @param startTime       Start of the test (System.nanoTime).
+     * @param searchStartTime Start of the search (System.nanoTime).
+     * @param prepared        Whether the candidate sets have been prepared (the molecules have passed the pretest).
+     */
+    private void collectStatistics(long startTime, long searchStartTime, boolean prepared) {
+
+        long endTime = System.nanoTime();
+
+        // the initial candidate sets are known only if the molecules have passed the pretest
+        long candidates = 0;
+        int maxCandidates = 0;
+        long removals = 0;
+        long updates = 0;
+        if (prepared) {
+            candidates = initialCandidates;
+            maxCandidates = initialMaxCandidates;
+            removals = log.getTotalRemovals();
+            updates = pq.getUpdateCount();
+        }
+
+        // in a parallel search, the counters of the tasks are added by the shared control
+        statistics = new SearchStatistics(
+                nodes + control.nodes,
+                backtracks + control.backtracks,
+                Math.max(maxDepth, control.maxDepth),
+                removals + control.removals,
+                updates + control.priorityUpdates,
+                candidates, maxCandidates,
+                searchStartTime - startTime,
+                endTime - searchStartTime);
+    }
+
+    /**
+     * Create a copy of the search state of another object, in which the search
+     * has not yet been started. The copy may be modified independently.
+     *
+     * @param other
+     */
+    private METDefault(METDefault other) {
+
+        g1 = other.g1;
+        g2 = other.g2;
+        settings = other.settings;
+
+        can = new CandidateManager(other.can);
+        log = new ChangeLog(can.getTotalCandidateCount());
+        can.registerChangeLog(log);
+        pq = new IndexPriorityQueue(other.pq);
+
+        int n = g1.getAtomCount();
+        assignment = other.assignment.clone();
+        assigned2 = other.assigned2.clone();
+        candidateStack = new int[Math.max(can.getTotalCandidateCount(), 1)];
+        refuted = new boolean[candidateStack.length];
+        frameAtom = new int[n];
+        frameFirst = new int[n];
+        frameCount = new int[n];
+        frameCurrent = new int[n];
+        frameMark = new int[n];
+        frameSolutions = new long[n];
+        frameOrbitsComputed = new boolean[n];
+        resetPropagation(n);
+        if (other.allDifferent != null) {
+            allDifferent = new AllDifferent(n, g2.getAtomCount());
+        }
+        symmetryPruning = other.symmetryPruning;
+        automorphisms2 = other.automorphisms2;
+        orbits = new int[n][];
+        fixedCount = n - pq.size();
+        control = other.control;
+    }
+
+    /**
+     * Prepare the search for the automorphisms of a molecule, but do not start it.
+     *
+     * @param molecule Molecule graph.
+     */
+    private METDefault(Molecule molecule) {
+        this(new SearchSettings());
+        control = new SearchControl(settings);
+        initialize(molecule, molecule, settings);
+    }
+
+    /**
+     * Initialize the candidate sets and the work arrays of the search.
+     *
+     * @param mol1     Molecule graph.
+     * @param mol2     Molecule graph.
+     * @param settings Settings of the search.
+     * @return False, if mol1 and mol2 cannot be equivalent.
+     */
+    private boolean initialize(Molecule mol1, Molecule mol2, SearchSettings settings) {
 
         if (cannotBeIsomorphic(mol1, mol2))
-            return;
+            return false;
 
         this.g1 = mol1;
         this.g2 = mol2;
 
-        // initialize candidate managers
-        can1 = new CandidateManager(g1, g2);
-        can2 = new CandidateManager(g2, g1);
-
-        // initialize priority queue
-        pq = new IndexPriorityQueue(g1.getAtomCount());
+        int n = g1.getAtomCount();
+        int n2 = g2.getAtomCount();
+
+        // initialize candidate manager
+        if (can == null) {
+            can = new CandidateManager(g1, g2);
+            log = new ChangeLog(can.getTotalCandidateCount());
+            can.registerChangeLog(log);
+        } else {
+            can.initialize(g1, g2);
+            log.clear();
+        }
 
-        // the priority of an atom is the size of its candidate set
-        for (Atom atom1 : g1.getAtoms()) {
-            int priority = can1.getCandidatesOfAtom(atom1).size();
-            pq.add(atom1.getID(), priority);
+        // initialize the work arrays of the search (they only grow if the molecules are larger than before)
+        if (assignment == null || assignment.length < n) {
+            assignment = new int[n];
+            frameAtom = new int[n];
+            frameFirst = new int[n];
+            frameCount = new int[n];
+            frameCurrent = new int[n];
+            frameMark = new int[n];
+            frameSolutions = new long[n];
+            frameOrbitsComputed = new boolean[n];
+            orbits = new int[n][];
+        }
+        if (assigned2 == null || assigned2.length < n2) {
+            assigned2 = new boolean[n2];
+        }
+        if (candidateStack == null || candidateStack.length < can.getTotalCandidateCount()) {
+            candidateStack = new int[Math.max(can.getTotalCandidateCount(), 1)];
+            refuted = new boolean[candidateStack.length];
+        }
+        Arrays.fill(assignment, 0, n, -1);
+        Arrays.fill(assigned2, 0, n2, false);
+        resetPropagation(n);
+        depth = 0;
+        candidateStackSize = 0;
+        fixedCount = 0;
+        solutionCount = 0;
+        nodes = 0;
+        backtracks = 0;
+        maxDepth = 0;
+        automorphisms2 = null;
+
+        if (settings.isAllDifferentCheck()) {
+            if (allDifferent == null) {
+                allDifferent = new AllDifferent(n, n2);
+            } else {
+                allDifferent.reset(n, n2);
+            }
+        } else {
+            allDifferent = null;
+        }
+        symmetryPruning = settings.isSymmetryPruning();
+
+        // size of the candidate sets before the search starts
+        if (settings.isCollectStatistics()) {
+            initialCandidates = can.getTotalCandidateCount();
+            initialMaxCandidates = 0;
+            for (int i = 0; i < n; i++) {
+                initialMaxCandidates = Math.max(initialMaxCandidates, can.getCandidateCount(i));
+            }
         }
 
-        // test whether an isomorphism cannot exist
-        if (!forwardCheck())
-            return;
+        // initialize priority queue and work queue
+        initializePriorities();
 
-        // run full met.algorithm check
-        isomorphic = testEquivalenceRecursive();
+        // test whether an isomorphism cannot exist
+        return forwardCheck();
     }
 
 
     /**
-     * Recursive equivalence test.
+     * Continue the search for an atom mapping.
+     * <p>
+     * The search starts with the current state of the candidate sets. If resume is
+     * true, the current assignment must be an atom mapping found by an earlier call;
+     * this mapping is withdrawn and the search continues with the next one.
+     *
+     * @param resume Whether to continue after the previously found atom mapping.
+     * @return True, if an atom mapping has been found. False, if the search space is exhausted.
      */
-    private boolean testEquivalenceRecursive() {
+    private boolean search(boolean resume) {
+
+        if (resume) {
+
+            // if no atom has been assigned by the search, there is no further mapping
+            if (depth == 0)
+                return false;
+
+            retract(depth - 1);
+
+        } else {
 
-        // if all atoms in g1 have been assigned to an atom in g2
-        if (pq.isEmpty()) {
-            return true; // success! met.molecule graphs are isomorphic
+            // if all atoms in g1 have already been assigned to an atom in g2
+            if (pq.isEmpty()) {
+                solutionCount++;
+                return true;
+            }
+
+            openFrame();
         }
 
-        // choose and remove an unmatched atom in g1 with smallest priority
-        Atom atom1 = g1.getAtom(pq.poll());
+        while (depth > 0) {
 
-        // create a copy of atom1's candidate set
-        Collection<Atom> candidates = new ArrayList<>(can1.getCandidatesOfAtom(atom1));
+            // stop if another task has found an atom mapping, or if a limit has been reached
+            if (control.isStopped() || limitReached())
+                return false;
 
-        // for each candidate that may be assigned to atom1
-        for (Atom atom2 : candidates) {
+            int d = depth - 1;
 
-            // assign atom1 to atom2
-            mapping.put(atom1, atom2);
-            ChangeLog log = attach(atom1, atom2);
+            // if the atom of the top frame can be assigned to one of its remaining candidates
+            if (advance(d)) {
 
-            // if equivalence of g1 and g2 is still possible after assigning atom1 to atom2
-            if (forwardCheck()) {
+                // if all atoms in g1 have been assigned to an atom in g2
+                if (pq.isEmpty()) {
+                    solutionCount++;
+                    return true; // success! met.molecule graphs are isomorphic
+                }
+
+                openFrame();
 
-                // if recursive equivalence test is successful
-                if (testEquivalenceRecursive()) {
-                    return true;    // success!
+            } else {
+
+                // all candidates have been tested: return to the previous frame
+                closeFrame(d);
+                if (depth > 0) {
+                    retract(depth - 1);
                 }
             }
-
-            // uncouple atom1 and atom2 and restore previous candidate sets
-            mapping.remove(atom1);
-            log.undo();
         }
 
-        // if all candidates have been negatively tested
+        return false;
+    }
+
+    /**
+     * Test whether the search has reached one of its limits, and abort it in this case.
+     *
+     * @return True, if the search has been aborted.
+     */
+    private boolean limitReached() {
+
+        if ((control.nodeLimit > 0 && nodes >= control.nodeLimit)
+                || (control.backtrackLimit > 0 && backtracks >= control.backtrackLimit)) {
+            control.abort();
+            return true;
+        }
 
-        // re-insert atom1 into the priority queue
-        pq.add(atom1.getID(), candidates.size());
+        // reading the clock is comparatively expensive
+        if ((++ticks & CLOCK_INTERVAL) == 0)
+            return control.checkClock();
 
         return false;
     }
 
+    /**
+     * Choose an unassigned atom in g1 with smallest priority and push a new frame for it.
+     */
+    private void openFrame() {
+
+        // choose and remove an unmatched atom in g1 with smallest priority
+        int atom1 = pq.poll();
+        int d = depth++;
+
+        // push a copy of atom1's candidate set onto the candidate stack
+        int first = candidateStackSize;
+        int count = can.getCandidateCount(atom1);
+        if (first + count > candidateStack.length) {
+            int capacity = Math.max(2 * candidateStack.length, first + count);
+            candidateStack = Arrays.copyOf(candidateStack, capacity);
+            refuted = Arrays.copyOf(refuted, capacity);
+        }
+        for (int c = can.nextCandidate(atom1, 0); c != -1; c = can.nextCandidate(atom1, c + 1)) {
+            candidateStack[candidateStackSize++] = c;
+        }
+
+        maxDepth = Math.max(maxDepth, fixedCount + depth);
+
+        frameAtom[d] = atom1;
+        frameFirst[d] = first;
+        frameCount[d] = count;
+        frameCurrent[d] = first - 1;
+        frameOrbitsComputed[d] = false;
+    }
+
+    /**
+     * Pop the top frame and re-insert its atom into the priority queue.
+     *
+     * @param d Depth of the top frame.
+     */
+    private void closeFrame(int d) {
+
+        // pop the copy of the candidate set
+        candidateStackSize = frameFirst[d];
+
+        // re-insert the atom into the priority queue
+        pq.add(frameAtom[d], frameCount[d]);
+
+        depth--;
+    }
 
     /**
-     * Assign two atoms to each other.
+     * Assign the atom of a frame to its next candidate for which the forward check succeeds.
      *
-     * @param atom1 met.molecule.Atom of graph 1.
-     * @param atom2 met.molecule.Atom of graph 2.
+     * @param d Depth of the frame.
+     * @return False, if no candidate is left.
      */
-    private ChangeLog attach(Atom atom1, Atom atom2) {
+    private boolean advance(int d) {
+
+        int atom1 = frameAtom[d];
+        int first = frameFirst[d];
+        int end = first + frameCount[d];
+        int level = fixedCount + d;
+
+        // for each remaining candidate that may be assigned to atom1
+        for (int i = frameCurrent[d] + 1; i < end; i++) {
+
+            int atom2 = candidateStack[i];
+
+            // skip atom2 if it is symmetric to a candidate that has already been refuted
+            if (symmetryPruning && i > first) {
+                if (!frameOrbitsComputed[d]) {
+                    computeOrbits(level);
+                    frameOrbitsComputed[d] = true;
+                }
+                if (isSymmetricToRefuted(level, first, i)) {
+                    refuted[i] = true;
+                    continue;
+                }
+            }
 
-        // register a change log so that all changes may later be undone
-        ChangeLog log = new ChangeLog();
-        can1.registerChangeLog(log);
-        can2.registerChangeLog(log);
+            // assign atom1 to atom2
+            nodes++;
+            frameCurrent[d] = i;
+            frameMark[d] = log.mark();
+            frameSolutions[d] = solutionCount;
+            assignment[atom1] = atom2;
+            assigned2[atom2] = true;
+            attach(atom1, atom2);
 
-        // store all atoms in g1 whose priority has changed by attaching atom1 to atom2
-        Collection<Atom> priorityChanged = new HashSet<>();
+            // if equivalence of g1 and g2 is still possible after assigning atom1 to atom2
+            if (forwardCheck())
+                return true;
 
-        // remove node1 from all candidate sets of g2
-        for (Atom candidate2 : can1.getCandidatesOfAtom(atom1)) {
-            can2.removeCandidate(candidate2, atom1);
-            //  System.out.println("A remove candidate of g2::" + candidate2 + ": g1::" + atom1);
+            retract(d);
         }
 
-        // remove node2 from all candidate sets of g1
-        for (Atom candidate1 : can2.getCandidatesOfAtom(atom2)) {
-            can1.removeCandidate(candidate1, atom2);
-            //  System.out.println("A remove candidate of g1::" + candidate1 + ": g2::" + atom2);
-            priorityChanged.add(candidate1);
+        return false;
+    }
+
+    /**
+     * Withdraw the current assignment of a frame and restore the previous candidate sets.
+     *
+     * @param d Depth of the frame.
+     */
+    private void retract(int d) {
+
+        int i = frameCurrent[d];
+        int atom1 = frameAtom[d];
+        int atom2 = candidateStack[i];
+
+        // the candidate is refuted if no atom mapping has been found since its assignment
+        refuted[i] = solutionCount == frameSolutions[d];
+        backtracks++;
+
+        // uncouple atom1 and atom2 and restore previous candidate sets
+        assignment[atom1] = -1;
+        assigned2[atom2] = false;
+        backtrack(frameMark[d]);
+    }
+
+    /**
+     * Withdraw all assignments of the search and pop all frames.
+     */
+    private void abandonSearch() {
+        while (depth > 0) {
+            retract(depth - 1);
+            closeFrame(depth - 1);
         }
+    }
 
-        // as atom1 and atom2 are assigned to each other, their candidate sets are cleared
-        can1.clearCandidateListOfAtom(atom1);
-        can2.clearCandidateListOfAtom(atom2);
+    /**
+     * Return a lazy stream of all atom mappings from g1 to g2, starting with the
+     * mapping returned by getAtomMapping() (unless the search has run in parallel).
+     * <p>
+     * The stream continues the search of this object: each atom mapping is computed
+     * when it is requested, and no mapping is stored once it has been returned. Thus,
+     * the stream can be consumed only once, and stopping it early saves the search
+     * for the remaining mappings. The stream itself is always searched sequentially.
+     *
+     * @return
+     */
+    public Stream<Map<Atom, Atom>> getAllAtomMappings() {
 
-        // update candidate set of neighbored Integers of atom1
-        for (Atom neighbor1 : g1.getAdjacentAtoms(atom1)) {
+        Iterator<Map<Atom, Atom>> it = new Iterator<>() {
 
-            /*
-             * As neighbor1 is connected to atom1, the candidate set of neighbor1 can be reduced
-             * by all atoms that are not connected to node2.
-             *
-             * Thus, remove the candidates of neighbor1 which are not adjacent to node2.
-             */
-            var candidatesToBeRemoved = extractCandidatesNotAdjacentTo(atom2, g2, can1.getCandidatesOfAtom(neighbor1));
+            // whether the current assignment is an atom mapping that has not yet been returned
+            private boolean pending = atSolution;
 
-            // if there is at least one candidate that will be removed
-            if (!candidatesToBeRemoved.isEmpty()) {
+            // whether the search space is exhausted
+            private boolean exhausted = !isomorphic;
 
-                priorityChanged.add(neighbor1);
+            // whether the search has been started (it has not after a parallel search)
+            private boolean started = atSolution;
 
-                // remove selected candidates
-                for (Atom candidate2 : candidatesToBeRemoved) {
-                    can1.removeCandidate(neighbor1, candidate2);
-                    can2.removeCandidate(candidate2, neighbor1);
+            @Override
+            public boolean hasNext() {
+                if (!pending && !exhausted) {
+                    pending = search(started);
+                    started = true;
+                    exhausted = !pending;
                 }
+                return pending;
+            }
+
+            @Override
+            public Map<Atom, Atom> next() {
+
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                pending = false;
+
+                Map<Atom, Atom> m = new HashMap<>();
+                for (int i = 0; i < g1.getAtomCount(); i++) {
+                    m.put(g1.getAtom(i), g2.getAtom(assignment[i]));
+                }
+                return m;
+            }
+        };
+
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, characteristics), false);
+    }
+
+    /**
+     * Search an atom mapping with parallel tasks.
+     *
+     * @param settings Settings of the search.
+     * @return An atom mapping as array of atom ids, or null if there is none.
+     */
+    private int[] searchParallel(SearchSettings settings) {
+
+        // the automorphisms are shared by all tasks and thus computed in advance, within the limits of the search
+        if (symmetryPruning) {
+            automorphisms2 = new CanonicalLabeling(g2, control).getAutomorphisms();
+            if (control.isAborted()) {
+                undecided = true;
+                return null;
             }
+        }
+
+        // the tasks work on copies, so this object remains at the start of the search
+        METDefault root = new METDefault(this);
+        root.control = new SearchControl(control);
 
+        int[] solution;
+        ForkJoinPool pool = new ForkJoinPool(settings.getParallelism());
+        try {
+            solution = pool.invoke(new SearchTask(root, settings.getForkDepth()));
+        } finally {
+            pool.shutdownNow();
         }
 
-        // now symmetrically for graph2
+        // take over the counters of the tasks
+        SearchControl tasks = root.control;
+        synchronized (tasks) {
+            control.addCounts(tasks.nodes, tasks.backtracks, tasks.maxDepth, tasks.removals, tasks.priorityUpdates);
+        }
 
-        // update candidate set of neighbored Integers of node2
-        for (Atom neighbor2 : g2.getAdjacentAtoms(atom2)) {
+        undecided = solution == null && tasks.isAborted();
+        return solution;
+    }
 
-            /*
-             * As neighbor2 is connected to node2, its candidate set can be reduced
-             * by the Integers that are not connected to node1.
-             *
-             * Thus, select to subset of Integers from the candidate set of neighbor2 which are not
-             * adjacent to node1.
-             */
-            var candidatesToBeRemoved = extractCandidatesNotAdjacentTo(atom1, g1, can2.getCandidatesOfAtom(neighbor2));
+    /**
+     * A task of the parallel search. Each task owns a copy of the search state.
+     * <p>
+     * On the first levels, a task chooses an unassigned atom and creates a subtask
+     * for each candidate of this atom. Among candidates that are symmetric under the
+     * known automorphisms of g2, only one needs to be tested. Below these levels,
+     * a task runs the sequential search on its copy.
+     */
+    private static class SearchTask extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private METDefault engine;
+        private int forkDepth;
+
+        SearchTask(METDefault engine, int forkDepth) {
+            this.engine = engine;
+            this.forkDepth = forkDepth;
+        }
+
+        @Override
+        protected int[] compute() {
 
-            // remove selected candidates
-            for (Atom candidate1 : candidatesToBeRemoved) {
-                can1.removeCandidate(candidate1, neighbor2);
-                can2.removeCandidate(neighbor2, candidate1);
-                priorityChanged.add(candidate1);
+            METDefault e = engine;
+            engine = null;      // release the search state when the task is done
+
+            try {
+                return compute(e);
+            } finally {
+                e.control.addCounts(e.nodes, e.backtracks, Math.max(e.maxDepth, e.fixedCount),
+                        e.log.getTotalRemovals(), e.pq.getUpdateCount());
             }
         }
 
-        // update the priority of all Integers in graph 1 whose candidate set changed
-        for (Atom atom : priorityChanged) {
-            var candidateList = can1.getCandidatesOfAtom(atom);
-            pq.changePriority(atom.getID(), candidateList.size());
+        private int[] compute(METDefault e) {
+
+            if (e.control.isStopped())
+                return null;
+
+            // continue sequentially
+            if (forkDepth == 0 || e.pq.isEmpty()) {
+                if (!e.search(false))
+                    return null;
+                e.control.setFound();
+                return e.assignment.clone();
+            }
+
+            // choose an unassigned atom with smallest priority
+            int atom1 = e.pq.poll();
+            int[] parent = e.symmetryPruning ? e.computeOrbits(e.fixedCount) : null;
+
+            // create a subtask for each candidate of atom1
+            List<SearchTask> tasks = new ArrayList<>();
+            for (int atom2 = e.can.nextCandidate(atom1, 0); atom2 != -1; atom2 = e.can.nextCandidate(atom1, atom2 + 1)) {
+
+                // a candidate symmetric to a previous one has the same outcome
+                if (parent != null && find(parent, atom2) != atom2 && e.can.isCandidate(atom1, find(parent, atom2)))
+                    continue;
+
+                METDefault child = new METDefault(e);
+                child.assignment[atom1] = atom2;
+                child.assigned2[atom2] = true;
+                child.attach(atom1, atom2);
+                if (child.forwardCheck()) {
+                    tasks.add(new SearchTask(child, forkDepth - 1));
+                }
+            }
+
+            for (SearchTask t : tasks) {
+                t.fork();
+            }
+
+            // wait for the first task with an atom mapping, and cancel the remaining tasks
+            int[] result = null;
+            for (SearchTask t : tasks) {
+                if (result != null) {
+                    t.cancel(false);
+                } else if (!t.isCancelled()) {
+                    result = t.join();
+                }
+            }
+
+            return result;
         }
+    }
 
-        return log;
+    /**
+     * Count the automorphisms of a molecule graph, i.e. the atom mappings from the molecule onto itself.
+     * <p>
+     * The automorphisms are not enumerated. Instead, the atoms v1, v2, ..., vn are fixed
+     * one after another, and the order of the automorphism group is the product of the
+     * orbit sizes of each vi under the automorphisms that fix v1, v2, ..., v(i-1).
+     * Orbits are extended by the automorphisms found by the canonical labeling and by
+     * the search; only candidates outside known orbits require a search.
+     *
+     * @param molecule Molecule graph.
+     * @return Number of automorphisms.
+     */
+    public static BigInteger countAutomorphisms(Molecule molecule) {
+        METDefault alg = new METDefault(molecule);
+        return alg.countAutomorphisms();
     }
 
     /**
-     * Extract the subset of atoms in the given candidate list which are *NOT* adjacent to the given atom v.
+     * Count the automorphisms of g1 = g2.
      *
-     * @param atom       met.molecule.Atom v
-     * @param g          met.molecule.Molecule graph
-     * @param candidates Candidate list
      * @return
      */
-    private Collection<Atom> extractCandidatesNotAdjacentTo(
-            Atom atom,
-            Molecule g,
-            Collection<Atom> candidates) {
+    private BigInteger countAutomorphisms() {
+
+        BigInteger order = BigInteger.ONE;
+        int n = g1.getAtomCount();
+
+        automorphisms2 = new ArrayList<>(new CanonicalLabeling(g2).getAutomorphisms());
+
+        int[] candidates = new int[n];
+        boolean[] refutedCandidate = new boolean[n];
+
+        while (!pq.isEmpty()) {
+
+            int atom = pq.poll();
+            int level = fixedCount;
+            int[] parent = computeOrbits(level);
+
+            // copy the candidate set of atom
+            int count = 0;
+            for (int c = can.nextCandidate(atom, 0); c != -1; c = can.nextCandidate(atom, c + 1)) {
+                candidates[count++] = c;
+            }
 
-        // will be returned
-        Collection<Atom> res = new ArrayList<>();
+            // determine the size of the orbit of atom
+            long orbitSize = 0;
+            for (int j = 0; j < count; j++) {
 
-        for (Atom candidate : candidates) {
-            if (!g.hasBond(candidate, atom)) {
-                res.add(candidate);
+                int b = candidates[j];
+                refutedCandidate[j] = false;
+
+                // b is the image of atom under some known automorphism
+                if (find(parent, b) == find(parent, atom)) {
+                    orbitSize++;
+                    continue;
+                }
+
+                // b is symmetric to a candidate that is not an image of atom
+                boolean symmetric = false;
+                for (int k = 0; k < j && !symmetric; k++) {
+                    symmetric = refutedCandidate[k] && find(parent, candidates[k]) == find(parent, b);
+                }
+                if (symmetric) {
+                    refutedCandidate[j] = true;
+                    continue;
+                }
+
+                // search for an automorphism that maps atom onto b
+                int mark = log.mark();
+                assignment[atom] = b;
+                assigned2[b] = true;
+                fixedCount++;
+                attach(atom, b);
+                boolean found = forwardCheck() && search(false);
+                if (found) {
+                    automorphisms2.add(assignment.clone());
+                    abandonSearch();
+                }
+                fixedCount--;
+                assignment[atom] = -1;
+                assigned2[b] = false;
+                backtrack(mark);
+
+                if (found) {
+                    orbitSize++;
+                    parent = computeOrbits(level);
+                } else {
+                    refutedCandidate[j] = true;
+                }
             }
+
+            order = order.multiply(BigInteger.valueOf(orbitSize));
+
+            // fix atom
+            assignment[atom] = atom;
+            assigned2[atom] = true;
+            fixedCount++;
+            attach(atom, atom);
+            forwardCheck();
         }
 
-        return res;
+        return order;
     }
 
+    /**
+     * Determine the orbits of the known automorphisms of g2 that fix each assigned atom of g2.
+     *
+     * @param level Level of the search.
+     * @return The orbits as union-find forest.
+     */
+    private int[] computeOrbits(int level) {
+
+        /*
+         * The automorphisms are computed when they are needed for the first time. The
+         * labeling counts against the limits of the search; if it is stopped, the
+         * automorphisms found so far still yield valid (if coarser) orbits, and the
+         * search stops before its next node.
+         */
+        if (automorphisms2 == null) {
+            automorphisms2 = new CanonicalLabeling(g2, control).getAutomorphisms();
+        }
+
+        int n2 = g2.getAtomCount();
+        if (orbits[level] == null || orbits[level].length < n2) {
+            orbits[level] = new int[n2];
+        }
+        int[] parent = orbits[level];
+        for (int b = 0; b < n2; b++) {
+            parent[b] = b;
+        }
+
+        for (int[] gamma : automorphisms2) {
+
+            // test whether gamma fixes each assigned atom
+            boolean fixes = true;
+            for (int b = 0; b < n2 && fixes; b++) {
+                fixes = !assigned2[b] || gamma[b] == b;
+            }
+
+            if (fixes) {
+                for (int b = 0; b < n2; b++) {
+                    int x = find(parent, b);
+                    int y = find(parent, gamma[b]);
+                    if (x != y) {
+                        parent[Math.max(x, y)] = Math.min(x, y);
+                    }
+                }
+            }
+        }
+
+        return parent;
+    }
 
     /**
-     * Check whether an equivalence is still possible.
+     * Test whether the i-th candidate on the candidate stack lies in the same orbit
+     * as one of the previously refuted candidates of the same level.
      *
+     * @param level Level of the search.
+     * @param first Position of the first candidate of this level on the candidate stack.
+     * @param i     Position of the candidate on the candidate stack.
      * @return
      */
-    private boolean forwardCheck() {
+    private boolean isSymmetricToRefuted(int level, int first, int i) {
+        int[] parent = orbits[level];
+        int root = find(parent, candidateStack[i]);
+        for (int k = first; k < i; k++) {
+            if (refuted[k] && find(parent, candidateStack[k]) == root)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the representative of the orbit of an atom in g2.
+     */
+    private static int find(int[] parent, int b) {
+        while (parent[b] != b) {
+            parent[b] = parent[parent[b]];
+            b = parent[b];
+        }
+        return b;
+    }
 
-        if (pq.isEmpty())
-            return true;
+    /**
+     * Assign two atoms to each other.
+     *
+     * @param atom1 Atom id in graph 1.
+     * @param atom2 Atom id in graph 2.
+     */
+    private void attach(int atom1, int atom2) {
+
+        // as atom1 and atom2 are assigned to each other, atom1 has no more candidates
+        for (int candidate2 = can.nextCandidate(atom1, 0); candidate2 != -1; candidate2 = can.nextCandidate(atom1, candidate2 + 1)) {
+            prune(atom1, candidate2);
+        }
+
+        // and atom2 is removed from all candidate sets of g1
+        for (int candidate1 = can.nextInverseCandidate(atom2, 0); candidate1 != -1; candidate1 = can.nextInverseCandidate(atom2, candidate1 + 1)) {
+            prune(candidate1, atom2);
+        }
+
+        // update candidate set of neighbored atoms of atom1
+        for (int k = 0; k < g1.getDegree(atom1); k++) {
+
+            /*
+             * As neighbor1 is connected to atom1, the candidate set of neighbor1 can be reduced
+             * by all atoms that are not connected to atom2 by a bond of the same label.
+             *
+             * Thus, remove the candidates of neighbor1 which are not adjacent to atom2
+             * or whose bond to atom2 differs in bond order or aromaticity.
+             */
+            int n1 = g1.getAdjacentAtom(atom1, k);
+            int label = g1.getAdjacentBondLabel(atom1, k);
+            for (int candidate2 = can.nextCandidate(n1, 0); candidate2 != -1; candidate2 = can.nextCandidate(n1, candidate2 + 1)) {
+                if (g2.getBondLabel(candidate2, atom2) != label) {
+                    prune(n1, candidate2);
+                }
+            }
+        }
+
+        // now symmetrically for graph2
 
-        // todo: improve forward checking
+        // update candidate set of neighbored atoms of atom2
+        for (int k = 0; k < g2.getDegree(atom2); k++) {
 
-        // test whether the Integer with smallest priority has at least one candidate
-        Atom atom1 = g1.getAtom(pq.peek());
-        return !can1.getCandidatesOfAtom(atom1).isEmpty();
+            /*
+             * As neighbor2 is connected to atom2, it can only be a candidate of
+             * atoms that are connected to atom1 by a bond of the same label.
+             *
+             * Thus, remove neighbor2 from the candidate sets of atoms which are not
+             * adjacent to atom1 or whose bond to atom1 has a different label.
+             */
+            int n2 = g2.getAdjacentAtom(atom2, k);
+            int label = g2.getAdjacentBondLabel(atom2, k);
+            for (int candidate1 = can.nextInverseCandidate(n2, 0); candidate1 != -1; candidate1 = can.nextInverseCandidate(n2, candidate1 + 1)) {
+                if (g1.getBondLabel(candidate1, atom1) != label) {
+                    prune(candidate1, n2);
+                }
+            }
+        }
     }
 
     /**
@@ -281,6 +1028,10 @@ public class METDefault implements Algorithm {
         MoleculeProperties prop_x = x.getProperties();
         MoleculeProperties prop_y = y.getProperties();
 
+        // the molecules cannot be equivalent if their sizes differ
+        if (x.getAtomCount() != y.getAtomCount() || x.getBondCount() != y.getBondCount())
+            return true;
+
         // the molecules cannot be equivalent if their properties differ
         return !prop_x.equals(prop_y);
     }
@@ -296,6 +1047,30 @@ public class METDefault implements Algorithm {
         return isomorphic;
     }
 
+    /**
+     * Return the outcome of the test, which is UNKNOWN if a limit of the search has been
+     * reached (or the search has been cancelled) before the test was decided.
+     *
+     * @return
+     */
+    @Override
+    public Outcome getOutcome() {
+        if (isomorphic)
+            return Outcome.EQUIVALENT;
+        return undecided ? Outcome.UNKNOWN : Outcome.NOT_EQUIVALENT;
+    }
+
+
+    /**
+     * Return the statistics of the test, or null if they have not been collected
+     * (see SearchSettings.setCollectStatistics).
+     *
+     * @return
+     */
+    @Override
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
 
     /**
      * Return the isomorphism function, or null if the graphs are non-isomorphic.
@@ -304,6 +1079,17 @@ public class METDefault implements Algorithm {
      */
     @Override
     public Map<Atom, Atom> getAtomMapping() {
+
+        // create the atom mapping
+        if (mapping == null) {
+            mapping = new HashMap<>();
+            if (solution != null) {
+                for (int i = 0; i < g1.getAtomCount(); i++) {
+                    mapping.put(g1.getAtom(i), g2.getAtom(solution[i]));
+                }
+            }
+        }
+
         return mapping;
     }
 }
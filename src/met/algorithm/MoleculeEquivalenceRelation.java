@@ -0,0 +1,67 @@
+package met.algorithm;
+
+import met.interfaces.EquivalenceRelation;
+import met.interfaces.Outcome;
+import met.molecule.Molecule;
+
+/**
+ * Two molecules are equivalent iff METDefault finds an atom mapping between them.
+ * <p>
+ * Each test is run with the given search settings. If a limit of the search is
+ * reached, the outcome of the test is UNKNOWN, so that a partition puts the
+ * molecule aside instead of blocking on it.
+ * <p>
+ * Each thread reuses a single search workspace for all of its tests, so that
+ * partitioning a large set of molecules does not allocate a new search per pair.
+ */
+public class MoleculeEquivalenceRelation implements EquivalenceRelation<Molecule> {
+
+    // settings of each test
+    private SearchSettings settings;
+
+    // workspace of each thread, reused by all tests of that thread
+    private final ThreadLocal<METDefault> workspace;
+
+    // statistics aggregated over all tests, or null if they are not collected
+    private SearchStatistics statistics;
+
+    /**
+     * Create the relation with default search settings.
+     */
+    public MoleculeEquivalenceRelation() {
+        this(new SearchSettings());
+    }
+
+    /**
+     * Create the relation with the given search settings.
+     *
+     * @param settings Settings of each test.
+     */
+    public MoleculeEquivalenceRelation(SearchSettings settings) {
+        this.settings = settings;
+        this.workspace = ThreadLocal.withInitial(() -> new METDefault(settings));
+        if (settings.isCollectStatistics()) {
+            statistics = new SearchStatistics();
+        }
+    }
+
+    @Override
+    public boolean equivalent(Molecule x, Molecule y) {
+        return test(x, y) == Outcome.EQUIVALENT;
+    }
+
+    @Override
+    public Outcome test(Molecule x, Molecule y) {
+        METDefault alg = workspace.get();
+        Outcome outcome = alg.test(x, y);
+        if (statistics != null) {
+            statistics.add(alg.getStatistics());
+        }
+        return outcome;
+    }
+
+    @Override
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
+}
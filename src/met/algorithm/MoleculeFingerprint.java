@@ -1,16 +1,22 @@
 package met.algorithm;
 
 import met.interfaces.Fingerprint;
+import met.interfaces.LongFingerprint;
 import met.molecule.Molecule;
 
 /**
  * Create fingerprints for met.molecule graphs.
  */
-public class MoleculeFingerprint implements Fingerprint<Molecule> {
+public class MoleculeFingerprint implements Fingerprint<Molecule>, LongFingerprint<Molecule> {
 
     @Override
     public int fingerprint(Molecule x) {
         //System.out.println("MolFing: "+x.getProperties().hashCode());
         return x.getProperties().hashCode();
     }
+
+    @Override
+    public long longFingerprint(Molecule x) {
+        return x.getProperties().getDigestLow();
+    }
 }
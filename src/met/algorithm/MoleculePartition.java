@@ -1,16 +1,93 @@
 package met.algorithm;
 
-import met.helper.Partition;
-import met.interfaces.Algorithm;
+import met.helper.EquivalenceClass;
 import met.molecule.Molecule;
 
-public class MoleculePartition extends Partition<Molecule> {
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Partition of molecules into equivalence classes by their canonical forms.
+ * <p>
+ * Unlike the generic met.helper.Partition, no pairwise equivalence test is needed:
+ * two molecules are equivalent iff they have the same canonical form. As the
+ * canonical labeling always decides, there are no unclassified molecules, and as
+ * no search is run, there are no search statistics.
+ * <p>
+ * The classes are found by their canonical forms in a CanonicalFormIndex.
+ */
+public class MoleculePartition {
+
+    // a list of all equivalence classes
+    private List<EquivalenceClass<Molecule>> classes;
+
+    // canonical form to the index of its class
+    private CanonicalFormIndex classWithCanonicalForm;
+
+    /**
+     * Create an empty partition.
+     */
     public MoleculePartition() {
+        classes = new ArrayList<>();
+        classWithCanonicalForm = new CanonicalFormIndex();
+    }
+
+    /**
+     * Partition a given collection of molecules into equivalence classes.
+     *
+     * @param items
+     */
+    public MoleculePartition(Iterable<Molecule> items) {
+        this();
+        for (Molecule item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Insert a molecule into its associated equivalence class.
+     *
+     * @param item
+     */
+    public void add(Molecule item) {
+
+        CanonicalForm form = new CanonicalLabeling(item).getCanonicalForm();
+
+        int c = classWithCanonicalForm.find(form);
+        if (c != -1) {
+            classes.get(c).add(item);
+            return;
+        }
+
+        // create a new class with the molecule as representative
+        classWithCanonicalForm.insert(form, classes.size());
+        classes.add(new EquivalenceClass<>(item));
+    }
+
+    /**
+     * Return the list of equivalence classes in which all molecules
+     * are pair-wisely equivalent.
+     *
+     * @return
+     */
+    public List<EquivalenceClass<Molecule>> getEquivalenceClasses() {
+        return classes;
+    }
+
+    /**
+     * Return the class of molecules which are equivalent to the given molecule.
+     *
+     * @param item
+     * @return
+     */
+    public EquivalenceClass<Molecule> getEquivalentItems(Molecule item) {
+
+        CanonicalForm form = new CanonicalLabeling(item).getCanonicalForm();
+
+        int c = classWithCanonicalForm.find(form);
+        if (c != -1)
+            return classes.get(c);
 
-        super((x, y) -> {
-            Algorithm alg = new METDefault(x, y);
-            return alg.areEquivalent();
-        }, new MoleculeFingerprint());
+        return new EquivalenceClass<>();    // empty equivalence class
     }
 }
@@ -0,0 +1,136 @@
+package met.algorithm;
+
+/**
+ * Limits and stop flags of a search, shared by all tasks of a parallel search.
+ * <p>
+ * The search counts its nodes and backtracks itself and compares them with the
+ * limits given here. The clock and the cancellation token are checked by
+ * checkClock(), which the search calls at regular intervals. A sequential search
+ * resets its control in place at the start of each test.
+ */
+class SearchControl {
+
+    // limits of the search (0 = unlimited)
+    long nodeLimit;
+    long backtrackLimit;
+
+    // point in time (System.nanoTime) at which the search is aborted, unless hasDeadline is false
+    private boolean hasDeadline;
+    private long deadline;
+
+    // token by which the search can be cancelled from outside, or null
+    private CancellationToken token;
+
+    // whether an atom mapping has been found by some task of a parallel search
+    private volatile boolean found;
+
+    // whether the search has been aborted before it was decided
+    private volatile boolean aborted;
+
+    // counters of the finished tasks of a parallel search
+    long nodes;
+    long backtracks;
+    int maxDepth;
+    long removals;
+    long priorityUpdates;
+
+    /**
+     * Create the control of a search that starts now.
+     *
+     * @param settings Settings of the search.
+     */
+    SearchControl(SearchSettings settings) {
+        reset(settings);
+    }
+
+    /**
+     * Create a control with the same limits as another one, but with cleared flags.
+     *
+     * @param other
+     */
+    SearchControl(SearchControl other) {
+        nodeLimit = other.nodeLimit;
+        backtrackLimit = other.backtrackLimit;
+        hasDeadline = other.hasDeadline;
+        deadline = other.deadline;
+        token = other.token;
+    }
+
+    /**
+     * Restart the control for a search that starts now: take over the limits of
+     * the settings and clear the flags and counters.
+     *
+     * @param settings Settings of the search.
+     */
+    void reset(SearchSettings settings) {
+        nodeLimit = settings.getNodeLimit();
+        backtrackLimit = settings.getBacktrackLimit();
+        hasDeadline = settings.getTimeLimit() > 0;
+        deadline = System.nanoTime() + settings.getTimeLimit() * 1_000_000L;
+        token = settings.getCancellationToken();
+        found = false;
+        aborted = false;
+        nodes = 0;
+        backtracks = 0;
+        maxDepth = 0;
+        removals = 0;
+        priorityUpdates = 0;
+    }
+
+    /**
+     * Test whether the deadline has passed or the search has been cancelled, and
+     * abort the search in this case.
+     *
+     * @return True, if the search has been aborted.
+     */
+    boolean checkClock() {
+        if ((token != null && token.isCancelled()) || (hasDeadline && System.nanoTime() - deadline > 0)) {
+            aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * Abort the search.
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    /**
+     * Return whether the search has been aborted.
+     *
+     * @return
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Signal that an atom mapping has been found.
+     */
+    void setFound() {
+        found = true;
+    }
+
+    /**
+     * Return whether the search has to stop, either because an atom mapping has
+     * been found by another task or because the search has been aborted.
+     *
+     * @return
+     */
+    boolean isStopped() {
+        return found || aborted;
+    }
+
+    /**
+     * Add the counters of a finished task of a parallel search.
+     */
+    synchronized void addCounts(long nodes, long backtracks, int maxDepth, long removals, long priorityUpdates) {
+        this.nodes += nodes;
+        this.backtracks += backtracks;
+        this.maxDepth = Math.max(this.maxDepth, maxDepth);
+        this.removals += removals;
+        this.priorityUpdates += priorityUpdates;
+    }
+}
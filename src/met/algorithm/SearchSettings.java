@@ -0,0 +1,227 @@
+package met.algorithm;
+
+/**
+ * Settings that control how the equivalence test searches for an atom mapping.
+ * <p>
+ * The settings do not change the result of the test, only the way it is found.
+ * The only exception are the limits of the search: if a limit is reached before
+ * the test is decided, its outcome is UNKNOWN.
+ */
+public class SearchSettings {
+
+    // whether the search checks in each step that the unassigned atoms can still be mapped injectively
+    private boolean allDifferentCheck = false;
+
+    // whether the search skips candidates that are symmetric to refuted candidates
+    private boolean symmetryPruning = true;
+
+    // number of threads of the parallel search, or 1 for a sequential search
+    private int parallelism = 1;
+
+    // number of search levels whose candidates are distributed onto parallel tasks
+    private int forkDepth = 2;
+
+    // limits of the search (0 = unlimited)
+    private long timeLimit = 0;         // milliseconds
+    private long nodeLimit = 0;         // number of tested assignments
+    private long backtrackLimit = 0;    // number of withdrawn assignments
+
+    // token by which the search can be cancelled from outside, or null
+    private CancellationToken cancellationToken = null;
+
+    // whether the test collects statistics about the search
+    private boolean collectStatistics = false;
+
+    /**
+     * Create the default settings.
+     */
+    public SearchSettings() {
+    }
+
+    /**
+     * Return whether the all-different look-ahead is enabled.
+     *
+     * @return
+     */
+    public boolean isAllDifferentCheck() {
+        return allDifferentCheck;
+    }
+
+    /**
+     * Enable or disable the all-different look-ahead.
+     * <p>
+     * If enabled, the search tests after each assignment whether a perfect matching between
+     * the unassigned atoms of both molecules still exists, and removes each candidate that
+     * does not belong to any perfect matching. This detects conflicts like "three atoms
+     * share two candidates" immediately, at the cost of additional work per search step.
+     *
+     * @param allDifferentCheck
+     */
+    public void setAllDifferentCheck(boolean allDifferentCheck) {
+        this.allDifferentCheck = allDifferentCheck;
+    }
+
+    /**
+     * Return whether symmetry pruning is enabled.
+     *
+     * @return
+     */
+    public boolean isSymmetryPruning() {
+        return symmetryPruning;
+    }
+
+    /**
+     * Enable or disable symmetry pruning.
+     * <p>
+     * If enabled, the search determines automorphisms of the second molecule once the
+     * first assignment has been refuted. Afterwards, it skips each candidate that is
+     * mapped onto a refuted candidate of the same atom by an automorphism that fixes
+     * all assigned atoms. This saves the repeated search of symmetric subtrees in
+     * highly symmetric molecules.
+     * The search steps of the automorphism computation count against the node limit,
+     * and it is stopped by the time limit and the cancellation token like the search.
+     *
+     * @param symmetryPruning
+     */
+    public void setSymmetryPruning(boolean symmetryPruning) {
+        this.symmetryPruning = symmetryPruning;
+    }
+
+    /**
+     * Return the number of threads used by the search.
+     *
+     * @return
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads used by the search.
+     * <p>
+     * If larger than one, the candidates of the first getForkDepth() search levels are
+     * tested by parallel tasks of a fork/join pool. Each task works on its own copy of
+     * the candidate sets. As soon as one task finds an atom mapping, all other tasks stop.
+     * This only pays off for hard pairs of molecules, as each task copies the search state.
+     *
+     * @param parallelism Number of threads, or 1 for a sequential search.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Return the number of search levels whose candidates are tested by parallel tasks.
+     *
+     * @return
+     */
+    public int getForkDepth() {
+        return forkDepth;
+    }
+
+    /**
+     * Set the number of search levels whose candidates are tested by parallel tasks.
+     * Below these levels, each task continues sequentially.
+     *
+     * @param forkDepth
+     */
+    public void setForkDepth(int forkDepth) {
+        this.forkDepth = Math.max(0, forkDepth);
+    }
+
+    /**
+     * Return the time limit of the search in milliseconds (0 = unlimited).
+     *
+     * @return
+     */
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Limit the wall-clock time of the search.
+     * <p>
+     * The time is measured from the start of the test, including the preparation
+     * of the candidate sets, but the preparation itself is never interrupted.
+     *
+     * @param milliseconds Time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTimeLimit(long milliseconds) {
+        this.timeLimit = Math.max(0, milliseconds);
+    }
+
+    /**
+     * Return the maximal number of search nodes (0 = unlimited).
+     *
+     * @return
+     */
+    public long getNodeLimit() {
+        return nodeLimit;
+    }
+
+    /**
+     * Limit the number of search nodes, i.e. the number of assignments of an atom
+     * to a candidate. In a parallel search, the limit applies to each task.
+     *
+     * @param nodeLimit Maximal number of nodes, or 0 for no limit.
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = Math.max(0, nodeLimit);
+    }
+
+    /**
+     * Return the maximal number of backtracks (0 = unlimited).
+     *
+     * @return
+     */
+    public long getBacktrackLimit() {
+        return backtrackLimit;
+    }
+
+    /**
+     * Limit the number of backtracks, i.e. the number of assignments that are
+     * withdrawn. In a parallel search, the limit applies to each task.
+     *
+     * @param backtrackLimit Maximal number of backtracks, or 0 for no limit.
+     */
+    public void setBacktrackLimit(long backtrackLimit) {
+        this.backtrackLimit = Math.max(0, backtrackLimit);
+    }
+
+    /**
+     * Return the cancellation token of the search, or null.
+     *
+     * @return
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Set a token by which the search can be cancelled from another thread.
+     *
+     * @param cancellationToken Token, or null.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Return whether statistics about the search are collected.
+     *
+     * @return
+     */
+    public boolean isCollectStatistics() {
+        return collectStatistics;
+    }
+
+    /**
+     * Enable or disable the collection of statistics about the search.
+     * If disabled, getStatistics() of the test returns null.
+     *
+     * @param collectStatistics
+     */
+    public void setCollectStatistics(boolean collectStatistics) {
+        this.collectStatistics = collectStatistics;
+    }
+}
@@ -0,0 +1,189 @@
+package met.algorithm;
+
+/**
+ * Statistics of one or more equivalence tests.
+ * <p>
+ * The statistics of several tests are aggregated by add(): the counters and
+ * times are summed up, while the maximal search depth and the largest initial
+ * candidate set are the maxima over all tests.
+ */
+public class SearchStatistics {
+
+    // number of tests summarized by this object
+    private long tests;
+
+    // number of assignments of an atom to a candidate, and number of withdrawn assignments
+    private long nodes;
+    private long backtracks;
+
+    // largest number of simultaneously assigned atoms
+    private int maxDepth;
+
+    // number of candidates removed from candidate sets (including removals that have been undone)
+    private long candidateRemovals;
+
+    // number of priority changes in the priority queue
+    private long priorityUpdates;
+
+    // total number of candidates, and size of the largest candidate set, before the search starts
+    private long initialCandidates;
+    private int initialMaxCandidates;
+
+    // time spent on the preparation of the candidate sets and on the search, in nanoseconds
+    private long preprocessingTime;
+    private long searchTime;
+
+    /**
+     * Create empty statistics.
+     */
+    public SearchStatistics() {
+    }
+
+    /**
+     * Create the statistics of a single test.
+     */
+    SearchStatistics(long nodes, long backtracks, int maxDepth, long candidateRemovals, long priorityUpdates,
+                     long initialCandidates, int initialMaxCandidates, long preprocessingTime, long searchTime) {
+        this.tests = 1;
+        this.nodes = nodes;
+        this.backtracks = backtracks;
+        this.maxDepth = maxDepth;
+        this.candidateRemovals = candidateRemovals;
+        this.priorityUpdates = priorityUpdates;
+        this.initialCandidates = initialCandidates;
+        this.initialMaxCandidates = initialMaxCandidates;
+        this.preprocessingTime = preprocessingTime;
+        this.searchTime = searchTime;
+    }
+
+    /**
+     * Add the statistics of other tests to these statistics.
+     *
+     * @param other
+     */
+    public synchronized void add(SearchStatistics other) {
+        tests += other.tests;
+        nodes += other.nodes;
+        backtracks += other.backtracks;
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        candidateRemovals += other.candidateRemovals;
+        priorityUpdates += other.priorityUpdates;
+        initialCandidates += other.initialCandidates;
+        initialMaxCandidates = Math.max(initialMaxCandidates, other.initialMaxCandidates);
+        preprocessingTime += other.preprocessingTime;
+        searchTime += other.searchTime;
+    }
+
+    /**
+     * Return the number of tests summarized by these statistics.
+     *
+     * @return
+     */
+    public long getTestCount() {
+        return tests;
+    }
+
+    /**
+     * Return the number of search nodes, i.e. assignments of an atom to a candidate.
+     *
+     * @return
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Return the number of backtracks, i.e. withdrawn assignments.
+     *
+     * @return
+     */
+    public long getBacktracks() {
+        return backtracks;
+    }
+
+    /**
+     * Return the largest number of simultaneously assigned atoms.
+     *
+     * @return
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Return the number of candidates removed from candidate sets, including removals that have been undone.
+     *
+     * @return
+     */
+    public long getCandidateRemovals() {
+        return candidateRemovals;
+    }
+
+    /**
+     * Return the number of priority changes in the priority queue.
+     *
+     * @return
+     */
+    public long getPriorityUpdates() {
+        return priorityUpdates;
+    }
+
+    /**
+     * Return the total size of all candidate sets before the search starts.
+     *
+     * @return
+     */
+    public long getInitialCandidates() {
+        return initialCandidates;
+    }
+
+    /**
+     * Return the size of the largest candidate set before the search starts.
+     *
+     * @return
+     */
+    public int getInitialMaxCandidates() {
+        return initialMaxCandidates;
+    }
+
+    /**
+     * Return the time spent on the preparation of the candidate sets in nanoseconds.
+     *
+     * @return
+     */
+    public long getPreprocessingTime() {
+        return preprocessingTime;
+    }
+
+    /**
+     * Return the time spent on the search in nanoseconds.
+     *
+     * @return
+     */
+    public long getSearchTime() {
+        return searchTime;
+    }
+
+    /**
+     * Return a string representation.
+     *
+     * @return
+     */
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("tests:              ").append(tests).append("\n");
+        sb.append("nodes:              ").append(nodes).append("\n");
+        sb.append("backtracks:         ").append(backtracks).append("\n");
+        sb.append("max. depth:         ").append(maxDepth).append("\n");
+        sb.append("candidate removals: ").append(candidateRemovals).append("\n");
+        sb.append("priority updates:   ").append(priorityUpdates).append("\n");
+        sb.append("initial candidates: ").append(initialCandidates)
+                .append(" (largest set: ").append(initialMaxCandidates).append(")\n");
+        sb.append("preprocessing:      ").append(preprocessingTime / 1_000_000.0).append(" ms\n");
+        sb.append("search:             ").append(searchTime / 1_000_000.0).append(" ms\n");
+
+        return sb.toString();
+    }
+}
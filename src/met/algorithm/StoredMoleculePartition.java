@@ -0,0 +1,136 @@
+package met.algorithm;
+
+import met.io.MoleculeStore;
+import met.molecule.Molecule;
+
+import java.util.Arrays;
+
+/**
+ * Partition of molecules into equivalence classes whose members are kept in an
+ * off-heap MoleculeStore.
+ * <p>
+ * Like MoleculePartition, each molecule is assigned to its class by its canonical
+ * form. But instead of a list of Molecule objects, each class only consists of the
+ * handles of its members in the store, chained by int arrays, and the classes are
+ * found by their canonical forms in a CanonicalFormIndex. Thus, the heap holds a few primitive values per class and per molecule and no object at all,
+ * while the molecule graphs reside in direct memory and are decoded on demand.
+ */
+public class StoredMoleculePartition {
+
+    // store of all partitioned molecules
+    private final MoleculeStore store;
+
+    // canonical form to the index of its class
+    private final CanonicalFormIndex classWithCanonicalForm;
+
+    // first member (the representative), last member and size of each class
+    private int[] first = new int[1024];
+    private int[] last = new int[1024];
+    private int[] size = new int[1024];
+    private int classCount;
+
+    // next member of the same class of each stored molecule, or -1
+    private int[] next = new int[1024];
+
+    /**
+     * Create an empty partition of the molecules of a store.
+     *
+     * @param store Store in which the partitioned molecules are kept.
+     */
+    public StoredMoleculePartition(MoleculeStore store) {
+        this.store = store;
+        classWithCanonicalForm = new CanonicalFormIndex();
+    }
+
+    /**
+     * Append a molecule to the store and insert it into its equivalence class.
+     * The molecule object is not referenced afterwards.
+     *
+     * @param item
+     * @return Index of the equivalence class.
+     */
+    public int add(Molecule item) {
+
+        CanonicalForm form = new CanonicalLabeling(item).getCanonicalForm();
+        int handle = store.add(item);
+
+        if (handle >= next.length)
+            next = Arrays.copyOf(next, Math.max(2 * next.length, handle + 1));
+        next[handle] = -1;
+
+        int c = classWithCanonicalForm.find(form);
+        if (c != -1) {
+            next[last[c]] = handle;
+            last[c] = handle;
+            size[c]++;
+            return c;
+        }
+
+        // create a new class with the molecule as representative
+        if (classCount == first.length) {
+            first = Arrays.copyOf(first, 2 * classCount);
+            last = Arrays.copyOf(last, 2 * classCount);
+            size = Arrays.copyOf(size, 2 * classCount);
+        }
+        first[classCount] = handle;
+        last[classCount] = handle;
+        size[classCount] = 1;
+        classWithCanonicalForm.insert(form, classCount);
+
+        return classCount++;
+    }
+
+    /**
+     * Return the number of equivalence classes.
+     *
+     * @return
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Return the number of members of an equivalence class.
+     *
+     * @param c Index of the equivalence class.
+     * @return
+     */
+    public int getClassSize(int c) {
+        return size[c];
+    }
+
+    /**
+     * Return the handle of the representative of an equivalence class.
+     *
+     * @param c Index of the equivalence class.
+     * @return
+     */
+    public int getRepresentative(int c) {
+        return first[c];
+    }
+
+    /**
+     * Return the handles of all members of an equivalence class in the order of
+     * insertion, starting with the representative.
+     *
+     * @param c Index of the equivalence class.
+     * @return
+     */
+    public int[] getMembers(int c) {
+        int[] members = new int[size[c]];
+        int k = 0;
+        for (int h = first[c]; h != -1; h = next[h]) {
+            members[k++] = h;
+        }
+        return members;
+    }
+
+    /**
+     * Return the store in which the molecules are kept.
+     *
+     * @return
+     */
+    public MoleculeStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,103 @@
+package met.algorithm;
+
+import met.molecule.Atom;
+import met.molecule.AtomProperties;
+import met.molecule.Bond;
+import met.molecule.Molecule;
+
+import java.util.Arrays;
+
+/**
+ * Counts of atom and bond invariants of a molecule, used to reject targets of a
+ * substructure search before any candidate set is built.
+ * <p>
+ * Each count can only grow from a substructure to a molecule that contains it:
+ * the number of atoms of each element, the number of bonds with each label, the
+ * number of hydrogen and deuterium atoms, the number of charged atoms and radicals,
+ * and for each d the number of atoms with at least d neighbors. Thus, if some
+ * count of the query exceeds the count of the target, the query is not contained
+ * in the target.
+ */
+public class SubstructureScreen {
+
+    // atomic numbers >= ELEMENTS share the last element count
+    private static final int ELEMENTS = 120;
+
+    // degrees >= DEGREES share the last degree count
+    private static final int DEGREES = 8;
+
+    // position of each group of counts
+    private static final int BOND_LABELS = ELEMENTS;
+    private static final int ATOM_DEGREES = BOND_LABELS + Bond.LABEL_COUNT;
+    private static final int HYDROGENS = ATOM_DEGREES + DEGREES;
+    private static final int DEUTERIUM = HYDROGENS + 1;
+    private static final int CHARGED_ATOMS = DEUTERIUM + 1;
+    private static final int RADICALS = CHARGED_ATOMS + 1;
+    private static final int SIZE = RADICALS + 1;
+
+    private final int[] counts = new int[SIZE];
+
+    /**
+     * Create a screen without any counts, to be filled by count().
+     */
+    public SubstructureScreen() {
+    }
+
+    /**
+     * Count the invariants of a molecule.
+     *
+     * @param molecule
+     */
+    public SubstructureScreen(Molecule molecule) {
+        count(molecule);
+    }
+
+    /**
+     * Replace the counts by the invariants of a molecule, so that one screen can
+     * be reused for many molecules.
+     *
+     * @param molecule
+     */
+    public void count(Molecule molecule) {
+
+        Arrays.fill(counts, 0);
+
+        for (Atom atom : molecule.getAtoms()) {
+
+            AtomProperties prop = atom.getProperties();
+            counts[Math.min(Math.max(prop.getSymbol(), 0), ELEMENTS - 1)]++;
+            counts[HYDROGENS] += prop.getHydrogenCount();
+            counts[DEUTERIUM] += prop.getDeuteriumCount();
+            counts[RADICALS] += prop.getSingleElectronCount();
+            if (prop.getFormalCharge() != 0)
+                counts[CHARGED_ATOMS]++;
+
+            // count atom a once for each d = 1, ..., degree(a)
+            int degree = Math.min(molecule.getDegree(atom.getID()), DEGREES);
+            for (int d = 0; d < degree; d++) {
+                counts[ATOM_DEGREES + d]++;
+            }
+
+            // each bond is counted at its atom with smaller id
+            for (int k = 0; k < molecule.getDegree(atom.getID()); k++) {
+                if (molecule.getAdjacentAtom(atom.getID(), k) > atom.getID())
+                    counts[BOND_LABELS + molecule.getAdjacentBondLabel(atom.getID(), k)]++;
+            }
+        }
+    }
+
+    /**
+     * Test whether the molecule of this screen may contain the molecule of another screen.
+     * If false is returned, the other molecule is not a substructure of this molecule.
+     *
+     * @param query Screen of the query.
+     * @return
+     */
+    public boolean mayContain(SubstructureScreen query) {
+        for (int i = 0; i < SIZE; i++) {
+            if (query.counts[i] > counts[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,404 @@
+package met.algorithm;
+
+import met.interfaces.Algorithm;
+import met.interfaces.Outcome;
+import met.molecule.Atom;
+import met.molecule.Molecule;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test whether a query molecule is a substructure of a target molecule, i.e.
+ * whether there is an injective atom mapping from the query into the target that
+ * maps each bond of the query onto a bond of the target with the same label. The
+ * target may have further atoms and bonds.
+ * <p>
+ * The search shares its candidate sets and their propagation with METDefault
+ * (CandidatePropagation): all removals are registered in a ChangeLog and undone on
+ * backtracking, and the query atom with fewest candidates is assigned next. A query
+ * atom may be assigned to a target atom with the same element, charge and number
+ * of radicals, which has at least as many neighbors, hydrogen atoms and bonds of
+ * each order (AtomProperties.isContainedIn).
+ * <p>
+ * Before any candidate set is built, the target is rejected if one of its
+ * invariant counts is smaller than the count of the query (SubstructureScreen).
+ * To screen one query against a library of targets, create a single object and call
+ * test() for each target: the screen of the query and all work arrays are reused.
+ */
+public class SubstructureSearch extends CandidatePropagation implements Algorithm {
+
+    /*
+     * The query is g1 and the target is g2. As the target may have further atoms,
+     * the mapping need not be onto g2, and assigned2 stays null.
+     */
+
+    // counts of the invariants of the query and of the target, reused for all tests
+    private final SubstructureScreen queryScreen = new SubstructureScreen();
+    private final SubstructureScreen targetScreen = new SubstructureScreen();
+
+    // whether the query is contained in the target
+    private boolean contained = false;
+
+    // whether the search has been aborted by one of its limits before it was decided
+    private boolean undecided = false;
+
+    // settings of the tests of this object
+    private SearchSettings settings;
+
+    // limits and stop flags of the search
+    private SearchControl control;
+
+    // the clock and cancellation token are checked every CLOCK_INTERVAL + 1 search nodes
+    private static final int CLOCK_INTERVAL = 255;
+
+    // atom mapping from query to target, created when it is requested for the first time
+    private Map<Atom, Atom> mapping;
+
+    // the atom mapping found by the last test as array of atom ids, or null
+    private int[] solution;
+    private int[] solutionBuffer;
+
+    // copies of the candidate sets of the atoms on the search path
+    private int[] candidateStack;
+    private int candidateStackSize;
+
+    // number of search nodes and backtracks, and the largest number of assigned atoms
+    private long nodes;
+    private long backtracks;
+    private int ticks;
+    private int depth;
+    private int maxDepth;
+
+    // statistics of the test, or null if they are not collected
+    private SearchStatistics statistics;
+    private long initialCandidates;
+    private int initialMaxCandidates;
+
+    /**
+     * Create a search with the given settings, which can then be used for any
+     * number of tests by calling test().
+     * <p>
+     * Of the settings, the limits, the cancellation token and the collection of
+     * statistics apply. The search is always sequential.
+     *
+     * @param settings
+     */
+    public SubstructureSearch(SearchSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Test whether a query is a substructure of a target.
+     *
+     * @param query
+     * @param target
+     */
+    public SubstructureSearch(Molecule query, Molecule target) {
+        this(query, target, new SearchSettings());
+    }
+
+    /**
+     * Test whether a query is a substructure of a target.
+     *
+     * @param query
+     * @param target
+     * @param settings
+     */
+    public SubstructureSearch(Molecule query, Molecule target, SearchSettings settings) {
+        this(settings);
+        test(query, target);
+    }
+
+    /**
+     * Test whether a query is a substructure of a target. The results of a previous
+     * test are discarded.
+     *
+     * @param query
+     * @param target
+     * @return The outcome of the test: EQUIVALENT if the query is contained in the target.
+     */
+    public Outcome test(Molecule query, Molecule target) {
+
+        // discard the results of the previous test
+        contained = false;
+        undecided = false;
+        solution = null;
+        mapping = null;
+        statistics = null;
+
+        // the screen of the query is kept as long as the same query is tested
+        if (query != g1) {
+            queryScreen.count(query);
+        }
+        g1 = query;
+        g2 = target;
+
+        if (control == null) {
+            control = new SearchControl(settings);
+        } else {
+            control.reset(settings);
+        }
+        nodes = 0;
+        backtracks = 0;
+        depth = 0;
+        maxDepth = 0;
+
+        boolean collect = settings.isCollectStatistics();
+        long startTime = collect ? System.nanoTime() : 0;
+
+        // reject the target by its size and invariant counts
+        boolean prepared = query.getAtomCount() <= target.getAtomCount()
+                && query.getBondCount() <= target.getBondCount();
+        if (prepared) {
+            targetScreen.count(target);
+            prepared = targetScreen.mayContain(queryScreen);
+        }
+
+        long searchStartTime = startTime;
+        if (prepared) {
+
+            if (initialize()) {
+
+                searchStartTime = collect ? System.nanoTime() : 0;
+                contained = search();
+                undecided = !contained && control.isAborted();
+
+                if (contained) {
+                    int n = query.getAtomCount();
+                    if (solutionBuffer == null || solutionBuffer.length < n) {
+                        solutionBuffer = new int[n];
+                    }
+                    System.arraycopy(assignment, 0, solutionBuffer, 0, n);
+                    solution = solutionBuffer;
+                }
+            }
+        }
+
+        if (collect) {
+            long endTime = System.nanoTime();
+            if (searchStartTime == startTime) {
+                searchStartTime = endTime;
+            }
+            statistics = new SearchStatistics(nodes, backtracks, maxDepth,
+                    prepared ? log.getTotalRemovals() : 0,
+                    prepared ? pq.getUpdateCount() : 0,
+                    prepared ? initialCandidates : 0,
+                    prepared ? initialMaxCandidates : 0,
+                    searchStartTime - startTime,
+                    endTime - searchStartTime);
+        }
+
+        return getOutcome();
+    }
+
+    /**
+     * Build the candidate sets and the priority queue of the query atoms.
+     *
+     * @return False, if the query cannot be contained in the target.
+     */
+    private boolean initialize() {
+
+        int n = g1.getAtomCount();
+
+        // the resources of previous tests are reused
+        if (can == null) {
+            can = new CandidateManager();
+            can.initializeSubstructure(g1, g2);
+            log = new ChangeLog(can.getTotalCandidateCount());
+            can.registerChangeLog(log);
+        } else {
+            can.initializeSubstructure(g1, g2);
+            log.clear();
+        }
+
+        if (assignment == null || assignment.length < n) {
+            assignment = new int[n];
+        }
+        if (candidateStack == null || candidateStack.length < can.getTotalCandidateCount()) {
+            candidateStack = new int[Math.max(can.getTotalCandidateCount(), 1)];
+        }
+        Arrays.fill(assignment, 0, n, -1);
+        resetPropagation(n);
+        candidateStackSize = 0;
+
+        if (settings.isCollectStatistics()) {
+            initialCandidates = can.getTotalCandidateCount();
+            initialMaxCandidates = 0;
+            for (int i = 0; i < n; i++) {
+                initialMaxCandidates = Math.max(initialMaxCandidates, can.getCandidateCount(i));
+            }
+        }
+
+        initializePriorities();
+
+        return forwardCheck();
+    }
+
+    /**
+     * Assign the query atom with fewest candidates to each of its candidates in turn,
+     * and continue recursively until all query atoms are assigned.
+     *
+     * @return True, if an atom mapping has been found.
+     */
+    private boolean search() {
+
+        // if all query atoms have been assigned
+        if (pq.isEmpty())
+            return true;
+
+        if (control.isStopped() || limitReached())
+            return false;
+
+        int atom1 = pq.poll();
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        // copy the candidate set, as it is modified by the assignments below
+        int first = candidateStackSize;
+        int count = can.getCandidateCount(atom1);
+        if (first + count > candidateStack.length) {
+            candidateStack = Arrays.copyOf(candidateStack, Math.max(2 * candidateStack.length, first + count));
+        }
+        for (int c = can.nextCandidate(atom1, 0); c != -1; c = can.nextCandidate(atom1, c + 1)) {
+            candidateStack[candidateStackSize++] = c;
+        }
+
+        for (int i = first; i < first + count; i++) {
+
+            int atom2 = candidateStack[i];
+
+            // assign atom1 to atom2
+            nodes++;
+            int mark = log.mark();
+            assignment[atom1] = atom2;
+            attach(atom1, atom2);
+
+            if (forwardCheck() && search())
+                return true;
+
+            // withdraw the assignment
+            backtracks++;
+            assignment[atom1] = -1;
+            backtrack(mark);
+
+            if (control.isStopped())
+                break;
+        }
+
+        candidateStackSize = first;
+        pq.add(atom1, count);
+        depth--;
+
+        return false;
+    }
+
+    /**
+     * Test whether the search has reached one of its limits, and abort it in this case.
+     *
+     * @return True, if the search has been aborted.
+     */
+    private boolean limitReached() {
+
+        if ((control.nodeLimit > 0 && nodes >= control.nodeLimit)
+                || (control.backtrackLimit > 0 && backtracks >= control.backtrackLimit)) {
+            control.abort();
+            return true;
+        }
+
+        // reading the clock is comparatively expensive
+        if ((++ticks & CLOCK_INTERVAL) == 0)
+            return control.checkClock();
+
+        return false;
+    }
+
+    /**
+     * Assign a query atom to a target atom.
+     *
+     * @param atom1 Atom id in the query.
+     * @param atom2 Atom id in the target.
+     */
+    private void attach(int atom1, int atom2) {
+
+        // atom1 has no more candidates
+        for (int candidate2 = can.nextCandidate(atom1, 0); candidate2 != -1; candidate2 = can.nextCandidate(atom1, candidate2 + 1)) {
+            prune(atom1, candidate2);
+        }
+
+        // and atom2 cannot be assigned to another query atom
+        for (int candidate1 = can.nextInverseCandidate(atom2, 0); candidate1 != -1; candidate1 = can.nextInverseCandidate(atom2, candidate1 + 1)) {
+            prune(candidate1, atom2);
+        }
+
+        /*
+         * Each neighbor of atom1 must be assigned to a neighbor of atom2 that is
+         * bonded to atom2 by a bond with the same label. Unlike an equivalence test,
+         * the neighbors of atom2 are not restricted, as the target may have further bonds.
+         */
+        for (int k = 0; k < g1.getDegree(atom1); k++) {
+            int n1 = g1.getAdjacentAtom(atom1, k);
+            int label = g1.getAdjacentBondLabel(atom1, k);
+            for (int candidate2 = can.nextCandidate(n1, 0); candidate2 != -1; candidate2 = can.nextCandidate(n1, candidate2 + 1)) {
+                if (g2.getBondLabel(candidate2, atom2) != label) {
+                    prune(n1, candidate2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether the query is contained in the target.
+     *
+     * @return
+     */
+    @Override
+    public boolean areEquivalent() {
+        return contained;
+    }
+
+    /**
+     * Return the outcome of the test: EQUIVALENT if the query is contained in the target,
+     * and UNKNOWN if a limit of the search has been reached before the test was decided.
+     *
+     * @return
+     */
+    @Override
+    public Outcome getOutcome() {
+        if (contained)
+            return Outcome.EQUIVALENT;
+        return undecided ? Outcome.UNKNOWN : Outcome.NOT_EQUIVALENT;
+    }
+
+    /**
+     * Return the statistics of the test, or null if they have not been collected.
+     *
+     * @return
+     */
+    @Override
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Return the atom mapping from the query into the target, which is empty if the
+     * query is not contained in the target.
+     *
+     * @return
+     */
+    @Override
+    public Map<Atom, Atom> getAtomMapping() {
+
+        if (mapping == null) {
+            mapping = new HashMap<>();
+            if (solution != null) {
+                for (int i = 0; i < g1.getAtomCount(); i++) {
+                    mapping.put(g1.getAtom(i), g2.getAtom(solution[i]));
+                }
+            }
+        }
+
+        return mapping;
+    }
+}
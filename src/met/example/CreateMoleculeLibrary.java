@@ -0,0 +1,38 @@
+package met.example;
+
+import met.io.MoleculeWriter;
+import met.io.SDFReader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Main class for converting an SDF file into a binary molecule library.
+ */
+public class CreateMoleculeLibrary {
+
+    public static void main(String[] args) throws IOException {
+
+        // parse arguments
+        if (args.length != 2) {
+            System.err.println("Usage: java CreateMoleculeLibrary <SDF> <LIBRARY>");
+            System.err.println("   where <SDF> is an SDF file with molecules,");
+            System.err.println("   and <LIBRARY> is the molecule library to be created.");
+            return;
+        }
+
+        int count = 0;
+        try (SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
+             MoleculeWriter writer = new MoleculeWriter(Paths.get(args[1]), "PUBCHEM_COMPOUND_CID")) {
+
+            // read molecules one by one and append them to the library
+            while (reader.hasNext()) {
+                writer.write(reader.next());
+                count++;
+            }
+        }
+
+        System.out.println(count + " molecule(s) written to " + args[1] + "!");
+    }
+}
@@ -0,0 +1,106 @@
+package met.example;
+
+import met.algorithm.METDefault;
+import met.algorithm.SearchSettings;
+import met.interfaces.Outcome;
+import met.io.SDFReader;
+import met.molecule.Atom;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Main class for checking that the all-different look-ahead does not change the
+ * outcome of an equivalence test.
+ * <p>
+ * Each pair of molecules of an SDF file, and each molecule with a renumbered copy
+ * of itself, is tested with and without the look-ahead. Both tests must agree,
+ * and the atom mapping found with the look-ahead must preserve atoms and bonds.
+ */
+public class TestAllDifferent {
+
+    public static void main(String[] args) throws FileNotFoundException {
+
+        // parse arguments
+        if (args.length != 1) {
+            System.err.println("Usage: java TestAllDifferent <SDF>");
+            System.err.println("   where <SDF> is an SDF file with molecules.");
+            return;
+        }
+
+        SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
+        Random random = new Random(1);
+
+        List<Molecule> molecules = new ArrayList<>();
+        while (reader.hasNext()) {
+            Molecule g = reader.next();
+            molecules.add(g);
+            molecules.add(TestCanonicalLabeling.permute(g, random));
+        }
+
+        SearchSettings plain = new SearchSettings();
+        SearchSettings lookAhead = new SearchSettings();
+        lookAhead.setAllDifferentCheck(true);
+
+        // one search object for each setting is used for all pairs
+        METDefault withoutCheck = new METDefault(plain);
+        METDefault withCheck = new METDefault(lookAhead);
+
+        int pairs = 0;
+        int failures = 0;
+        for (int i = 0; i < molecules.size(); i++) {
+            for (int j = i; j < molecules.size(); j++) {
+
+                Molecule g1 = molecules.get(i);
+                Molecule g2 = molecules.get(j);
+                pairs++;
+
+                Outcome expected = withoutCheck.test(g1, g2);
+                Outcome outcome = withCheck.test(g1, g2);
+                if (outcome != expected || (outcome == Outcome.EQUIVALENT && !isMapping(g1, g2, withCheck.getAtomMapping()))) {
+                    failures++;
+                    System.out.println("Molecules " + i + " and " + j + ": " + outcome + " with look-ahead, "
+                            + expected + " without!");
+                }
+            }
+        }
+
+        System.out.println(pairs + " pair(s) checked, " + failures + " failure(s)!");
+    }
+
+    /**
+     * Test whether an atom mapping is a bijection from g1 onto g2 that preserves
+     * the invariant keys of the atoms and the labels of the bonds.
+     */
+    private static boolean isMapping(Molecule g1, Molecule g2, Map<Atom, Atom> atomMapping) {
+
+        int n = g1.getAtomCount();
+        if (atomMapping == null || atomMapping.size() != n || n != g2.getAtomCount())
+            return false;
+
+        int[] mapping = new int[n];
+        for (Map.Entry<Atom, Atom> e : atomMapping.entrySet()) {
+            mapping[e.getKey().getID()] = e.getValue().getID();
+        }
+
+        boolean[] used = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            int w = mapping[v];
+            if (used[w])
+                return false;
+            used[w] = true;
+            if (g1.getAtom(v).getProperties().getInvariantKey() != g2.getAtom(w).getProperties().getInvariantKey())
+                return false;
+            for (int k = 0; k < g1.getDegree(v); k++) {
+                if (g2.getBondLabel(w, mapping[g1.getAdjacentAtom(v, k)]) != g1.getAdjacentBondLabel(v, k))
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package met.example;
+
+import met.algorithm.METDefault;
+import met.io.SDFReader;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Main class for checking the enumeration of atom mappings against the count of
+ * automorphisms.
+ * <p>
+ * For each molecule of an SDF file, the atom mappings onto a renumbered copy of the
+ * molecule are enumerated by getAllAtomMappings(). Each of them differs from the
+ * first one by an automorphism, so their number must equal the number of
+ * automorphisms determined by countAutomorphisms(). Molecules with more than
+ * MAX_MAPPINGS automorphisms are counted but not enumerated.
+ */
+public class TestAtomMappings {
+
+    // largest number of atom mappings that are enumerated
+    private static final long MAX_MAPPINGS = 100000;
+
+    public static void main(String[] args) throws FileNotFoundException {
+
+        // parse arguments
+        if (args.length != 1) {
+            System.err.println("Usage: java TestAtomMappings <SDF>");
+            System.err.println("   where <SDF> is an SDF file with molecules.");
+            return;
+        }
+
+        SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
+        Random random = new Random(1);
+
+        int count = 0;
+        int skipped = 0;
+        int failures = 0;
+        while (reader.hasNext()) {
+
+            // read next molecule graph from file
+            Molecule g = reader.next();
+            count++;
+
+            BigInteger automorphisms = METDefault.countAutomorphisms(g);
+            if (automorphisms.compareTo(BigInteger.valueOf(MAX_MAPPINGS)) > 0) {
+                skipped++;
+                continue;
+            }
+
+            Molecule h = TestCanonicalLabeling.permute(g, random);
+            long mappings = new METDefault(g, h).getAllAtomMappings().count();
+
+            if (mappings != automorphisms.longValue()) {
+                failures++;
+                System.out.println(g.getProperty("PUBCHEM_COMPOUND_CID") + ": " + mappings
+                        + " atom mapping(s), but " + automorphisms + " automorphism(s)!");
+            }
+        }
+
+        System.out.println(count + " molecule(s) checked, " + failures + " failure(s)!");
+        if (skipped > 0)
+            System.out.println(skipped + " molecule(s) with more than " + MAX_MAPPINGS + " automorphisms skipped!");
+    }
+}
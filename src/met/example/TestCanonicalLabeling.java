@@ -0,0 +1,125 @@
+package met.example;
+
+import met.algorithm.CanonicalForm;
+import met.algorithm.CanonicalLabeling;
+import met.io.SDFReader;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Main class for checking that the canonical form of a molecule does not depend
+ * on the numbering of its atoms.
+ * <p>
+ * Each molecule of an SDF file is renumbered at random several times, and the
+ * canonical form of each renumbered copy is compared with the canonical form of
+ * the molecule.
+ */
+public class TestCanonicalLabeling {
+
+    // number of random renumberings of each molecule
+    private static final int PERMUTATIONS = 20;
+
+    public static void main(String[] args) throws FileNotFoundException {
+
+        // parse arguments
+        if (args.length != 1) {
+            System.err.println("Usage: java TestCanonicalLabeling <SDF>");
+            System.err.println("   where <SDF> is an SDF file with molecules.");
+            return;
+        }
+
+        SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
+        Random random = new Random(1);
+
+        int count = 0;
+        int failures = 0;
+        while (reader.hasNext()) {
+
+            // read next molecule graph from file
+            Molecule g = reader.next();
+            CanonicalForm form = new CanonicalLabeling(g).getCanonicalForm();
+            count++;
+
+            for (int k = 0; k < PERMUTATIONS; k++) {
+                Molecule h = permute(g, random);
+                if (!form.equals(new CanonicalLabeling(h).getCanonicalForm())) {
+                    failures++;
+                    System.out.println("Canonical form of " + g.getProperty("PUBCHEM_COMPOUND_CID")
+                            + " changes under renumbering!");
+                    break;
+                }
+            }
+        }
+
+        System.out.println(count + " molecule(s) checked, " + failures + " failure(s)!");
+    }
+
+    /**
+     * Return a copy of a molecule graph whose atoms are renumbered at random.
+     *
+     * @param g      Molecule graph.
+     * @param random Source of the renumbering.
+     * @return
+     */
+    public static Molecule permute(Molecule g, Random random) {
+
+        int n = g.getAtomCount();
+
+        // position[v] is the id of atom v in the copy
+        int[] position = new int[n];
+        for (int v = 0; v < n; v++) {
+            position[v] = v;
+        }
+        for (int v = n - 1; v > 0; v--) {
+            int w = random.nextInt(v + 1);
+            int t = position[v];
+            position[v] = position[w];
+            position[w] = t;
+        }
+
+        int[] atomicNumber = new int[n];
+        int[] formalCharge = new int[n];
+        int[] singleElectrons = new int[n];
+        int[] hydrogenCount = new int[n];
+        int[] deuteriumCount = new int[n];
+        long[] descriptor = new long[n];
+        int[] degree = new int[n];
+        for (int v = 0; v < n; v++) {
+            int p = position[v];
+            atomicNumber[p] = g.getAtomicNumber(v);
+            formalCharge[p] = g.getFormalCharge(v);
+            singleElectrons[p] = g.getSingleElectronCount(v);
+            hydrogenCount[p] = g.getHydrogenCount(v);
+            deuteriumCount[p] = g.getDeuteriumCount(v);
+            descriptor[p] = g.getAtom(v).getProperties().getNeighborhoodDescriptor();
+            degree[p] = g.getDegree(v);
+        }
+
+        // adjacency in CSR layout with sorted adjacency lists
+        int[] offsets = new int[n + 1];
+        for (int p = 0; p < n; p++) {
+            offsets[p + 1] = offsets[p] + degree[p];
+        }
+        int[] neighbors = new int[offsets[n]];
+        byte[] bondLabel = new byte[offsets[n]];
+        long[] entries = new long[n];
+        for (int v = 0; v < n; v++) {
+            int p = position[v];
+            for (int k = 0; k < degree[p]; k++) {
+                entries[k] = ((long) position[g.getAdjacentAtom(v, k)] << 8) | g.getAdjacentBondLabel(v, k);
+            }
+            Arrays.sort(entries, 0, degree[p]);
+            for (int k = 0; k < degree[p]; k++) {
+                neighbors[offsets[p] + k] = (int) (entries[k] >>> 8);
+                bondLabel[offsets[p] + k] = (byte) entries[k];
+            }
+        }
+
+        return new Molecule(n, atomicNumber, formalCharge, singleElectrons, hydrogenCount, deuteriumCount,
+                offsets, neighbors, bondLabel, descriptor, null, g.getConfiguration());
+    }
+}
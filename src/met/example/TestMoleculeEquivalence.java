@@ -64,6 +64,10 @@ public class TestMoleculeEquivalence {
             IAtom v = mol1.getAtom(i);
             IAtom w = eq.getAtomMapping().get(v);
 
+            // hydrogen atoms are not mapped but counted by their neighbors
+            if (w == null)
+                continue;
+
             // format output string
             String idv = String.format("%1$" + length + "s", mol1.indexOf(v));
             String idw = String.format("%1$" + length + "s", mol2.indexOf(w));
@@ -0,0 +1,142 @@
+package met.example;
+
+import met.algorithm.CanonicalLabeling;
+import met.io.MoleculeLibrary;
+import met.io.MoleculeWriter;
+import met.io.SDFReader;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Main class for checking that molecules survive the round trip through a binary
+ * molecule library.
+ * <p>
+ * The molecules of an SDF file are written to a temporary library and read back.
+ * Each molecule read from the library must agree with the molecule read from the
+ * SDF file in its atoms, bonds, descriptors, fingerprint, data field and canonical
+ * form. Finally, libraries whose writer has not been closed or which have been
+ * truncated must be rejected.
+ */
+public class TestMoleculeLibrary {
+
+    public static void main(String[] args) throws IOException {
+
+        // parse arguments
+        if (args.length != 1) {
+            System.err.println("Usage: java TestMoleculeLibrary <SDF>");
+            System.err.println("   where <SDF> is an SDF file with molecules.");
+            return;
+        }
+
+        List<Molecule> molecules = new ArrayList<>();
+        try (SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID")) {
+            while (reader.hasNext()) {
+                molecules.add(reader.next());
+            }
+        }
+
+        Path file = Files.createTempFile("met", ".metb");
+        int failures = 0;
+        try {
+            try (MoleculeWriter writer = new MoleculeWriter(file, "PUBCHEM_COMPOUND_CID")) {
+                for (Molecule mol : molecules) {
+                    writer.write(mol);
+                }
+            }
+
+            // compare each stored molecule with the molecule read from the SDF file
+            try (MoleculeLibrary library = new MoleculeLibrary(file)) {
+                if (library.size() != molecules.size()) {
+                    failures++;
+                    System.out.println("Library holds " + library.size() + " instead of " + molecules.size() + " molecule(s)!");
+                }
+                for (int i = 0; i < Math.min(library.size(), molecules.size()); i++) {
+                    String difference = compare(molecules.get(i), library.get(i), library.getFingerprint(i));
+                    if (difference != null) {
+                        failures++;
+                        System.out.println("Molecule " + i + " differs in its " + difference + "!");
+                    }
+                }
+            }
+
+            /*
+             * A library without valid index must be rejected: an unclosed writer leaves
+             * the record count and the index offset (bytes 8-23 of the header) zero, and
+             * a truncated file lacks the end of its index.
+             */
+            byte[] bytes = Files.readAllBytes(file);
+            byte[] unclosed = bytes.clone();
+            Arrays.fill(unclosed, 8, 24, (byte) 0);
+            if (!isRejected(file, unclosed)) {
+                failures++;
+                System.out.println("Library of an unclosed writer is accepted!");
+            }
+            if (!isRejected(file, Arrays.copyOf(bytes, bytes.length - 4))) {
+                failures++;
+                System.out.println("Truncated library is accepted!");
+            }
+
+        } finally {
+            Files.delete(file);
+        }
+
+        System.out.println(molecules.size() + " molecule(s) checked, " + failures + " failure(s)!");
+    }
+
+    /**
+     * Return the first property in which two molecules differ, or null.
+     */
+    private static String compare(Molecule x, Molecule y, int fingerprint) {
+
+        if (x.getAtomCount() != y.getAtomCount() || x.getBondCount() != y.getBondCount())
+            return "size";
+
+        for (int v = 0; v < x.getAtomCount(); v++) {
+            if (x.getAtomicNumber(v) != y.getAtomicNumber(v)
+                    || x.getFormalCharge(v) != y.getFormalCharge(v)
+                    || x.getSingleElectronCount(v) != y.getSingleElectronCount(v)
+                    || x.getHydrogenCount(v) != y.getHydrogenCount(v)
+                    || x.getDeuteriumCount(v) != y.getDeuteriumCount(v))
+                return "atom " + v;
+            if (x.getAtom(v).getProperties().getInvariantKey() != y.getAtom(v).getProperties().getInvariantKey()
+                    || x.getAtom(v).getProperties().getNeighborhoodDescriptor() != y.getAtom(v).getProperties().getNeighborhoodDescriptor())
+                return "descriptors of atom " + v;
+            if (x.getDegree(v) != y.getDegree(v))
+                return "bonds of atom " + v;
+            for (int k = 0; k < x.getDegree(v); k++) {
+                if (x.getAdjacentAtom(v, k) != y.getAdjacentAtom(v, k)
+                        || x.getAdjacentBondLabel(v, k) != y.getAdjacentBondLabel(v, k))
+                    return "bonds of atom " + v;
+            }
+        }
+
+        if (!x.getProperties().equals(y.getProperties()) || x.getProperties().hashCode() != fingerprint)
+            return "fingerprint";
+        if (!Objects.equals(x.getProperty("PUBCHEM_COMPOUND_CID"), y.getProperty("PUBCHEM_COMPOUND_CID")))
+            return "data field";
+        if (!new CanonicalLabeling(x).getCanonicalForm().equals(new CanonicalLabeling(y).getCanonicalForm()))
+            return "canonical form";
+        return null;
+    }
+
+    /**
+     * Test whether a library with the given content is rejected when it is opened.
+     */
+    private static boolean isRejected(Path file, byte[] content) throws IOException {
+        Files.write(file, content);
+        try {
+            new MoleculeLibrary(file).close();
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
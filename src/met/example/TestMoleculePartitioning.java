@@ -1,68 +1,74 @@
 package met.example;
 
-import met.algorithm.MoleculePartition;
-import met.helper.EquivalenceClass;
+import met.algorithm.StoredMoleculePartition;
+import met.io.MoleculeLibrary;
+import met.io.MoleculeStore;
+import met.io.SDFReader;
 import met.molecule.Molecule;
-import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
 
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
 
 /**
  * Main class for partitioning molecules into equivalence classes.
  */
 public class TestMoleculePartitioning {
 
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
 
         // parse arguments
         if (args.length != 1) {
             System.err.println("Usage: java TestMoleculePartitioning <SDF>");
-            System.err.println("   where <SDF> is an SDF file with molecules.");
+            System.err.println("   where <SDF> is an SDF file with molecules, or a molecule library");
+            System.err.println("   created by CreateMoleculeLibrary.");
             return;
         }
 
-        // open SDF file
-        IteratingSDFReader reader = new IteratingSDFReader(new FileInputStream(args[0]), DefaultChemObjectBuilder.getInstance());
+        // open SDF file or molecule library
+        Path path = Paths.get(args[0]);
+        Iterator<Molecule> reader;
+        if (MoleculeLibrary.isLibrary(path))
+            reader = new MoleculeLibrary(path).iterator();
+        else
+            reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
 
-        // create partitioner object
-        MoleculePartition part = new MoleculePartition();
+        // create partitioner object, the molecules are kept off-heap
+        StoredMoleculePartition part = new StoredMoleculePartition(new MoleculeStore("PUBCHEM_COMPOUND_CID"));
 
         // read molecules one by one from file
         // read all molecules from file
         while ((reader.hasNext())) {
 
-            // read next molecule from file
-            IAtomContainer mol = reader.next();
-
-            // convert into molecule graph
-            Molecule g = new Molecule(mol);
+            // read next molecule graph from file
+            Molecule g = reader.next();
 
             // distribute mol to its equivalence class
             part.add(g);
         }
 
         // output number of equivalence classes
-        int size = part.getEquivalenceClasses().size();
+        int size = part.getClassCount();
         System.out.println(size + " equivalence class(es)!");
 
         // for each equivalence class
-        for (EquivalenceClass<Molecule> c : part.getEquivalenceClasses()) {
+        for (int c = 0; c < size; c++) {
 
             // determine the representative of each class
-            Molecule rep = c.getRepresentative();
-            String id = rep.getCDKContainer().getProperty("PUBCHEM_COMPOUND_CID").toString();
-            System.out.println(id + " (" + c.size() + " members)");
+            Molecule rep = part.getStore().get(part.getRepresentative(c));
+            String id = rep.getProperty("PUBCHEM_COMPOUND_CID");
+            System.out.println(id + " (" + part.getClassSize(c) + " members)");
 
             // for each member of this class
-            for (int i = 0; i < c.size(); i++) {
+            int[] members = part.getMembers(c);
+            for (int i = 0; i < members.length; i++) {
 
-                Molecule mol = c.getItems().get(i);
-                id = mol.getCDKContainer().getProperty("PUBCHEM_COMPOUND_CID").toString();
+                Molecule mol = part.getStore().get(members[i]);
+                id = mol.getProperty("PUBCHEM_COMPOUND_CID");
 
-                if (i < c.size() - 1)
+                if (i < members.length - 1)
                     System.out.println("├ " + id);
                 else
                     System.out.println("└ " + id);
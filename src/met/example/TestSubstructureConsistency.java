@@ -0,0 +1,106 @@
+package met.example;
+
+import met.algorithm.METDefault;
+import met.algorithm.SearchSettings;
+import met.algorithm.SubstructureSearch;
+import met.interfaces.Outcome;
+import met.io.SDFReader;
+import met.molecule.Atom;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Main class for checking the substructure search against the equivalence test.
+ * <p>
+ * Each ordered pair of molecules of an SDF file and of renumbered copies of them is
+ * tested by both searches. Equivalent molecules must contain each other, and each
+ * atom mapping found by the substructure search must be injective and map each
+ * atom onto an atom that contains it and each bond onto a bond with the same label.
+ */
+public class TestSubstructureConsistency {
+
+    public static void main(String[] args) throws FileNotFoundException {
+
+        // parse arguments
+        if (args.length != 1) {
+            System.err.println("Usage: java TestSubstructureConsistency <SDF>");
+            System.err.println("   where <SDF> is an SDF file with molecules.");
+            return;
+        }
+
+        SDFReader reader = new SDFReader(new FileInputStream(args[0]), "PUBCHEM_COMPOUND_CID");
+        Random random = new Random(1);
+
+        List<Molecule> molecules = new ArrayList<>();
+        while (reader.hasNext()) {
+            Molecule g = reader.next();
+            molecules.add(g);
+            molecules.add(TestCanonicalLabeling.permute(g, random));
+        }
+
+        // one search object for each kind of test is used for all pairs
+        METDefault equivalence = new METDefault(new SearchSettings());
+        SubstructureSearch substructure = new SubstructureSearch(new SearchSettings());
+
+        int pairs = 0;
+        int failures = 0;
+        for (Molecule query : molecules) {
+            for (Molecule target : molecules) {
+
+                pairs++;
+                Outcome equivalent = equivalence.test(query, target);
+                Outcome contained = substructure.test(query, target);
+
+                String error = null;
+                if (equivalent == Outcome.EQUIVALENT && contained != Outcome.EQUIVALENT)
+                    error = "equivalent, but not contained";
+                else if (contained == Outcome.EQUIVALENT && !isEmbedding(query, target, substructure.getAtomMapping()))
+                    error = "invalid atom mapping";
+
+                if (error != null) {
+                    failures++;
+                    System.out.println(query.getProperty("PUBCHEM_COMPOUND_CID") + " in "
+                            + target.getProperty("PUBCHEM_COMPOUND_CID") + ": " + error + "!");
+                }
+            }
+        }
+
+        System.out.println(pairs + " pair(s) checked, " + failures + " failure(s)!");
+    }
+
+    /**
+     * Test whether an atom mapping embeds the query into the target.
+     */
+    private static boolean isEmbedding(Molecule query, Molecule target, Map<Atom, Atom> atomMapping) {
+
+        int n = query.getAtomCount();
+        if (atomMapping == null || atomMapping.size() != n)
+            return false;
+
+        int[] mapping = new int[n];
+        for (Map.Entry<Atom, Atom> e : atomMapping.entrySet()) {
+            mapping[e.getKey().getID()] = e.getValue().getID();
+        }
+
+        boolean[] used = new boolean[target.getAtomCount()];
+        for (int v = 0; v < n; v++) {
+            int w = mapping[v];
+            if (used[w])
+                return false;
+            used[w] = true;
+            if (!query.getAtom(v).getProperties().isContainedIn(target.getAtom(w).getProperties()))
+                return false;
+            for (int k = 0; k < query.getDegree(v); k++) {
+                if (target.getBondLabel(w, mapping[query.getAdjacentAtom(v, k)]) != query.getAdjacentBondLabel(v, k))
+                    return false;
+            }
+        }
+        return true;
+    }
+}
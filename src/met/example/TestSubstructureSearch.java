@@ -0,0 +1,60 @@
+package met.example;
+
+import met.algorithm.SearchSettings;
+import met.algorithm.SubstructureSearch;
+import met.interfaces.Outcome;
+import met.io.SDFReader;
+import met.molecule.Molecule;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+/**
+ * Main class for screening a library of molecules for a substructure.
+ */
+public class TestSubstructureSearch {
+
+    public static void main(String[] args) throws FileNotFoundException {
+
+        // parse arguments
+        if (args.length != 2) {
+            System.err.println("Usage: java TestSubstructureSearch <QUERY> <SDF>");
+            System.err.println("   where <QUERY> is an SDF file whose first molecule is the substructure,");
+            System.err.println("   and <SDF> is an SDF file with molecules to be screened.");
+            return;
+        }
+
+        // read the query
+        SDFReader queryReader = new SDFReader(new FileInputStream(args[0]));
+        if (!queryReader.hasNext()) {
+            System.err.println("Error: " + args[0] + " contains no molecule!");
+            return;
+        }
+        Molecule query = queryReader.next();
+
+        // a single search object is used for all molecules of the library
+        SubstructureSearch search = new SubstructureSearch(new SearchSettings());
+
+        SDFReader reader = new SDFReader(new FileInputStream(args[1]), "PUBCHEM_COMPOUND_CID");
+
+        int hits = 0;
+        int unknown = 0;
+        while (reader.hasNext()) {
+
+            // read next molecule graph from file
+            Molecule target = reader.next();
+
+            Outcome outcome = search.test(query, target);
+            if (outcome == Outcome.EQUIVALENT) {
+                hits++;
+                System.out.println(target.getProperty("PUBCHEM_COMPOUND_CID"));
+            } else if (outcome == Outcome.UNKNOWN) {
+                unknown++;
+            }
+        }
+
+        System.out.println(hits + " molecule(s) contain the substructure!");
+        if (unknown > 0)
+            System.out.println(unknown + " molecule(s) could not be decided!");
+    }
+}
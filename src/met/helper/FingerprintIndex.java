@@ -0,0 +1,133 @@
+package met.helper;
+
+import java.util.Arrays;
+
+/**
+ * Map from 64-bit fingerprints to non-negative int values (such as class indices).
+ * <p>
+ * Implemented as an open-addressing hash table with linear probing in two
+ * parallel arrays, so that get() and put() neither box nor allocate. The slot of a
+ * key is derived from Hashing.mix(key); a value of -1 marks an empty slot. The
+ * table is doubled whenever it becomes half full.
+ */
+public class FingerprintIndex {
+
+    // largest table size
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // key and value of each slot (value -1 if the slot is empty)
+    private long[] keys;
+    private int[] values;
+
+    // capacity - 1
+    private int mask;
+
+    // number of stored keys
+    private int size;
+
+    /**
+     * Create an empty index.
+     */
+    public FingerprintIndex() {
+        this(16);
+    }
+
+    /**
+     * Create an empty index.
+     *
+     * @param expectedSize Number of keys that can be stored without growing the table.
+     */
+    public FingerprintIndex(int expectedSize) {
+        int capacity = 16;
+        while (capacity < MAX_CAPACITY && capacity < 2L * expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Return the value associated to a key, or -1 if the key is unknown.
+     *
+     * @param key
+     * @return
+     */
+    public int get(long key) {
+        int slot = (int) Hashing.mix(key) & mask;
+        while (values[slot] != -1) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Associate a value to a key, replacing the previous value.
+     *
+     * @param key
+     * @param value Non-negative value.
+     */
+    public void put(long key, int value) {
+
+        if (value < 0)
+            throw new IllegalArgumentException("Error: Negative value " + value + "!");
+
+        int slot = (int) Hashing.mix(key) & mask;
+        while (values[slot] != -1) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // keep at least one empty slot, which terminates each probe sequence
+        if (size == MAX_CAPACITY - 1)
+            throw new IllegalStateException("Error: Fingerprint index is full!");
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+
+        if (2 * size > mask + 1 && mask + 1 < MAX_CAPACITY)
+            grow();
+    }
+
+    /**
+     * Return the number of stored keys.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Double the table and re-insert all keys.
+     */
+    private void grow() {
+
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(2 * (mask + 1));
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != -1) {
+                int slot = (int) Hashing.mix(oldKeys[i]) & mask;
+                while (values[slot] != -1)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocate an empty table.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+    }
+}
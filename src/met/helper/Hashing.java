@@ -0,0 +1,40 @@
+package met.helper;
+
+/**
+ * Hash functions on primitive 64-bit values.
+ */
+public class Hashing {
+
+    // odd constant derived from the golden ratio
+    public static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private Hashing() {
+    }
+
+    /**
+     * Mix the bits of a 64-bit value (finalizer of the SplitMix64 generator).
+     * <p>
+     * Each input bit affects each output bit with probability close to 1/2,
+     * and mix(x) != mix(y) for x != y.
+     *
+     * @param x
+     * @return
+     */
+    public static long mix(long x) {
+        x += GOLDEN;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Combine a hash value with another value in an order-dependent way.
+     *
+     * @param h Hash value.
+     * @param x Value to be added.
+     * @return
+     */
+    public static long combine(long h, long x) {
+        return mix(h * GOLDEN + x);
+    }
+}
@@ -1,130 +1,213 @@
 package met.helper;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 
 /**
- * Priority queue to organize at set of items with priorities.
- * Implemented as a binary heap.
+ * Priority queue to organize a set of indices with small non-negative integer priorities.
+ * <p>
+ * Implemented as a bucket queue: for each priority there is a bucket that holds
+ * the indices with this priority as a doubly linked list. The lists are stored
+ * intrusively in int arrays, so that add(), poll(), changePriority() and remove()
+ * neither allocate nor box. The smallest non-empty bucket is found by scanning a
+ * bitset of non-empty buckets.
+ * <p>
+ * Ties between indices with equal priority can be broken by a rank per index:
+ * among indices with the same priority, an index with smaller rank is returned
+ * first. Internally, index i is stored in bucket priority * rankCount + rank[i].
  */
 public class IndexPriorityQueue {
 
-    /**
-     * Auxiliary class.
-     */
-    private class PQElement {
+    // priority and bucket of each index, or -1 if not included in the pq
+    private int[] priority;
+    private int[] bucket;
 
-        int index;
-        double priority;
+    // tie breaking rank of each index
+    private int[] rank;
 
-        PQElement(int index, double priority) {
-            this.index = index;
-            this.priority = priority;
-        }
-    }
+    // number of different ranks
+    private int rankCount = 1;
 
-    // stores PQ elements
-    private ArrayList<PQElement> elements;
+    // successor and predecessor of each index in the list of its bucket, or -1
+    private int[] next;
+    private int[] prev;
 
-    // current position of each index, or -1 if not included in the pq
-    private ArrayList<Integer> position;
+    // first index of each bucket, or -1 if the bucket is empty
+    private int[] head;
 
-    private int left(int i) {
-        return 2 * i + 1;
-    }
+    // bit b is set iff bucket b is not empty
+    private long[] nonEmpty;
 
-    private int right(int i) {
-        return 2 * i + 2;
-    }
+    // all words of nonEmpty below this one are zero
+    private int lowestWord;
 
-    private int parent(int i) {
-        return (i - 1) / 2;
-    }
+    // number of stored elements
+    private int size;
 
-    private boolean hasLeft(int i) {
-        return left(i) < elements.size();
-    }
+    // number of calls of changePriority()
+    private long updates;
 
-    private boolean hasRight(int i) {
-        return right(i) < elements.size();
-    }
+    /**
+     * Create an empty priority queue.
+     *
+     * @param maxCapacity Maximal number of stored elements.
+     */
+    public IndexPriorityQueue(int maxCapacity) {
+        priority = new int[maxCapacity];
+        bucket = new int[maxCapacity];
+        rank = new int[maxCapacity];
+        next = new int[maxCapacity];
+        prev = new int[maxCapacity];
+        head = new int[64];
+        nonEmpty = new long[1];
 
-    private boolean hasParent(int i) {
-        return parent(i) >= 0;
+        // initially no element is included in the priority queue
+        Arrays.fill(priority, -1);
+        Arrays.fill(bucket, -1);
+        Arrays.fill(head, -1);
     }
 
-    private void siftUp(int i) {
-
-        while (hasParent(i)) {
 
-            PQElement me = elements.get(i);
-            PQElement mother = elements.get(parent(i));
-
-            if (me.priority >= mother.priority)
-                break;
+    /**
+     * Create a copy of another priority queue.
+     *
+     * @param other
+     */
+    public IndexPriorityQueue(IndexPriorityQueue other) {
+        priority = other.priority.clone();
+        bucket = other.bucket.clone();
+        rank = other.rank.clone();
+        rankCount = other.rankCount;
+        next = other.next.clone();
+        prev = other.prev.clone();
+        head = other.head.clone();
+        nonEmpty = other.nonEmpty.clone();
+        lowestWord = other.lowestWord;
+        size = other.size;
+        updates = other.updates;
+    }
 
-            swap(i, parent(i));
-            i = parent(i);
+    /**
+     * Remove all elements and prepare the priority queue for the given number of indices.
+     * The ranks of all indices are reset to zero.
+     *
+     * @param maxCapacity Maximal number of stored elements.
+     */
+    public void clear(int maxCapacity) {
+
+        if (priority.length < maxCapacity) {
+            priority = new int[maxCapacity];
+            bucket = new int[maxCapacity];
+            rank = new int[maxCapacity];
+            next = new int[maxCapacity];
+            prev = new int[maxCapacity];
+        } else {
+            Arrays.fill(rank, 0);
         }
 
+        Arrays.fill(priority, -1);
+        Arrays.fill(bucket, -1);
+        Arrays.fill(head, -1);
+        Arrays.fill(nonEmpty, 0L);
+        lowestWord = 0;
+        rankCount = 1;
+        size = 0;
+        updates = 0;
     }
 
-    private void siftDown(int i) {
+    /**
+     * Set the ranks by which ties between indices of equal priority are broken.
+     * Among indices with the same priority, an index with smaller rank is returned first.
+     * The ranks can only be set while the priority queue is empty.
+     *
+     * @param ranks Non-negative rank of each index.
+     * @param count Number of indices whose rank is set.
+     */
+    public void setTieBreakingRanks(int[] ranks, int count) {
 
-        while (hasLeft(i)) {
+        if (size > 0) {
+            System.out.println("Warning: Try to set ranks of a non-empty priority queue!");
+            return;
+        }
 
-            PQElement me = elements.get(i);
+        rankCount = 1;
+        for (int i = 0; i < count; i++) {
+            rank[i] = ranks[i];
+            rankCount = Math.max(rankCount, ranks[i] + 1);
+        }
+    }
 
-            // find child with smallest priority
-            int childPosition = left(i);
-            PQElement child = elements.get(childPosition);
-            if (hasRight(i)) {
-                int rightPosition = right(i);
-                PQElement rightChild = elements.get(rightPosition);
-                if (child.priority > rightChild.priority) {
-                    child = rightChild;
-                    childPosition = rightPosition;
-                }
-            }
+    /**
+     * Return the bucket that corresponds to a priority and a rank.
+     * The bucket array grows if it is too small.
+     */
+    private int bucketOf(int priority, int rank) {
 
-            if (me.priority <= child.priority)
-                break;
+        int b = priority * rankCount + rank;
 
-            swap(i, childPosition);
-            i = childPosition;
+        if (b >= head.length) {
+            int capacity = Math.max(2 * head.length, b + 1);
+            int oldLength = head.length;
+            head = Arrays.copyOf(head, capacity);
+            Arrays.fill(head, oldLength, capacity, -1);
+            nonEmpty = Arrays.copyOf(nonEmpty, (capacity + 63) >>> 6);
         }
+
+        return b;
     }
 
     /**
-     * Swap the PQ elements at position i and j.
-     *
-     * @param i Position.
-     * @param j Position.
+     * Insert an index at the front of the list of bucket b.
      */
-    private void swap(int i, int j) {
-        PQElement pi = elements.get(i);
-        PQElement pj = elements.get(j);
-        Collections.swap(elements, i, j);
-        position.set(pi.index, j);
-        position.set(pj.index, i);
+    private void link(int index, int b) {
+        int first = head[b];
+        next[index] = first;
+        prev[index] = -1;
+        if (first != -1) {
+            prev[first] = index;
+        } else {
+            nonEmpty[b >>> 6] |= 1L << b;
+            lowestWord = Math.min(lowestWord, b >>> 6);
+        }
+        head[b] = index;
+        bucket[index] = b;
     }
 
-
     /**
-     * Create an empty priority queue.
-     *
-     * @param maxCapacity Maximal number of stored elements.
+     * Remove an index from the list of its bucket.
      */
-    public IndexPriorityQueue(int maxCapacity) {
-        elements = new ArrayList<>(maxCapacity);
-        position = new ArrayList<>(maxCapacity);
-
-        // initially no element is included in the priority queue
-        for (int i = 0; i < maxCapacity; i++) {
-            position.add(-1);
+    private void unlink(int index) {
+        int b = bucket[index];
+        int p = prev[index];
+        int s = next[index];
+        if (p != -1) {
+            next[p] = s;
+        } else {
+            head[b] = s;
+            if (s == -1) {
+                nonEmpty[b >>> 6] &= ~(1L << b);
+            }
+        }
+        if (s != -1) {
+            prev[s] = p;
         }
+        bucket[index] = -1;
     }
 
+    /**
+     * Return the smallest non-empty bucket, or -1 if empty.
+     * The scan starts at lowestWord, which is advanced past the empty words, so
+     * that the empty buckets of small priorities are only skipped once.
+     */
+    private int firstBucket() {
+        while (lowestWord < nonEmpty.length) {
+            long word = nonEmpty[lowestWord];
+            if (word != 0) {
+                return (lowestWord << 6) + Long.numberOfTrailingZeros(word);
+            }
+            lowestWord++;
+        }
+        return -1;
+    }
 
     /**
      * Return the index with smallest priority, or -1 if empty.
@@ -134,7 +217,7 @@ public class IndexPriorityQueue {
     public int peek() {
         if (isEmpty())
             return -1;
-        return elements.get(0).index;
+        return head[firstBucket()];
     }
 
     /**
@@ -142,54 +225,37 @@ public class IndexPriorityQueue {
      *
      * @return
      */
-    public Integer poll() {
+    public int poll() {
 
         if (isEmpty())
             return -1;
 
-        if (elements.size() == 1) {
-            PQElement el = elements.get(0);
-            elements.clear();
-            position.set(el.index, -1);
-            return el.index;
-        }
-
-        PQElement firstElement = elements.get(0);
-        PQElement lastElement = elements.get(elements.size() - 1);
-
-        // move the last element to the front, thereby overwriting the first element
-        elements.set(0, lastElement);
-        position.set(lastElement.index, 0);
-        elements.remove(elements.size() - 1);
-        position.set(firstElement.index, -1);
-
-        // re-establish heap-order
-        siftDown(0);
+        int index = head[firstBucket()];
+        unlink(index);
+        priority[index] = -1;
+        size--;
 
-        return firstElement.index;
+        return index;
     }
 
     /**
      * Add an index to the priority queue.
      *
      * @param index    Index to be added.
-     * @param priority Priority.
+     * @param priority Non-negative priority.
      */
-    public void add(int index, double priority) {
+    public void add(int index, int priority) {
 
         // index already included?
-        if (position.get(index) != -1) {
+        if (this.priority[index] != -1) {
             System.out.println("Warning! Element " + index + " already in priority queue!");
             changePriority(index, priority);
             return;
         }
 
-        // create a new pq element
-        position.set(index, elements.size());
-        elements.add(new PQElement(index, priority));
-
-        // establish heap-order
-        siftUp(elements.size() - 1);
+        this.priority[index] = priority;
+        link(index, bucketOf(priority, rank[index]));
+        size++;
     }
 
     /**
@@ -198,7 +264,7 @@ public class IndexPriorityQueue {
      * @return
      */
     public int size() {
-        return elements.size();
+        return size;
     }
 
 
@@ -206,41 +272,55 @@ public class IndexPriorityQueue {
      * Change the priority of an element.
      *
      * @param index       Index whose priority is to be changed.
-     * @param newPriority New priority.
-     * @return Old priority.
+     * @param newPriority New non-negative priority.
+     * @return Old priority, or -1 if the index is not included.
      */
-    public double changePriority(int index, double newPriority) {
+    public int changePriority(int index, int newPriority) {
 
         // if index is not included in the priority queue
-        if (position.get(index) == -1) {
+        if (priority[index] == -1) {
             System.out.println("Warning: Try to change priority of unknown element " + index + "!");
-            return Double.NaN;
+            return -1;
         }
 
-        int pos = position.get(index);
-        PQElement el = elements.get(pos);
-
-        // change priority
-        double oldPriority = el.priority;
-        el.priority = newPriority;
+        updates++;
 
-        // re-establish heap order
-        if (oldPriority > newPriority) {
-            siftUp(pos);
-        } else if (oldPriority < newPriority) {
-            siftDown(pos);
+        int oldPriority = priority[index];
+        if (oldPriority != newPriority) {
+            unlink(index);
+            priority[index] = newPriority;
+            link(index, bucketOf(newPriority, rank[index]));
         }
 
         return oldPriority;
     }
 
+    /**
+     * Return the number of priority changes since the priority queue was created.
+     *
+     * @return
+     */
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * Test whether an index is included in the priority queue.
+     *
+     * @param index
+     * @return
+     */
+    public boolean contains(int index) {
+        return priority[index] != -1;
+    }
+
     /**
      * Is the priority queue isEmpty?
      *
      * @return
      */
     public boolean isEmpty() {
-        return size() == 0;
+        return size == 0;
     }
 
 
@@ -252,27 +332,14 @@ public class IndexPriorityQueue {
     public void remove(int index) {
 
         // if the index is not included in the priority queue
-        if (position.get(index) == -1) {
+        if (priority[index] == -1) {
             System.out.println("Warning: Try to remove unknown element " + index + "!");
             return;
         }
 
-        // remove the element
-        int pos = position.get(index);
-        PQElement removed = elements.get(pos);
-        position.set(index, -1);
-
-        // replace the removed element by the rightmost element
-        PQElement rightmost = elements.get(elements.size() - 1);
-        elements.set(pos, rightmost);
-        position.set(rightmost.index, pos);
-
-        // repair heap
-        if (rightmost.priority < removed.priority) {
-            siftUp(pos);
-        } else if (rightmost.priority > removed.priority) {
-            siftDown(pos);
-        }
+        unlink(index);
+        priority[index] = -1;
+        size--;
     }
 
 
@@ -283,8 +350,10 @@ public class IndexPriorityQueue {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (PQElement pi : elements) {
-            sb.append(pi.index).append(" ").append(pi.priority).append("\n");
+        for (int b = 0; b < head.length; b++) {
+            for (int i = head[b]; i != -1; i = next[i]) {
+                sb.append(i).append(" ").append(priority[i]).append("\n");
+            }
         }
         return sb.toString();
     }
@@ -1,7 +1,10 @@
 package met.helper;
 
+import met.algorithm.SearchStatistics;
 import met.interfaces.EquivalenceRelation;
 import met.interfaces.Fingerprint;
+import met.interfaces.LongFingerprint;
+import met.interfaces.Outcome;
 
 import java.util.*;
 
@@ -15,7 +18,8 @@ public class Partition<T> {
     /*
      * We use a two-step approach to create equivalence classes.
      *
-     * First, we use hashCode() to determine a fingerprint of each item.
+     * First, we use hashCode() to determine a fingerprint of each item
+     * (a 64-bit one if the fingerprint function is a LongFingerprint).
      * Two equivalent items must have the same fingerprint. However, it
      * may be the case that to items that are not equivalent nevertheless
      * share the same fingerprint.
@@ -34,6 +38,15 @@ public class Partition<T> {
      *
      * Hence, the total number of equivalence classes is the total number
      * of items stored in this map.
+     *
+     * The map is a FingerprintIndex from each fingerprint to the index of
+     * C[1] in the list of classes, and the classes C[2], ..., C[k] are chained
+     * by an int array, so that looking up a fingerprint needs neither boxing
+     * nor a list object per fingerprint.
+     *
+     * If the relation cannot decide whether an item is equivalent to some
+     * representative (e.g. because a time limit has been reached), the item
+     * is put aside into a separate list of unclassified items.
      */
 
     // a list of all equivalence classes
@@ -47,8 +60,17 @@ public class Partition<T> {
     // default implementation: map all items to zero
     protected Fingerprint<T> fingerprint;
 
-    // fingerprint to list of equivalence classes
-    protected Map<Integer, List<EquivalenceClass<T>>> classesWithFingerprint;
+    // 64-bit fingerprint function, or null if fingerprint is no LongFingerprint
+    protected LongFingerprint<T> longFingerprint;
+
+    // fingerprint to index of the first class with this fingerprint
+    protected FingerprintIndex classWithFingerprint;
+
+    // index of the next class with the same fingerprint as each class, or -1
+    protected int[] nextWithFingerprint;
+
+    // items whose equivalence class could not be decided
+    protected List<T> unknownItems;
 
     /**
      * met.helper.Partition a given collection of items into equivalence classes in which all
@@ -58,8 +80,10 @@ public class Partition<T> {
      * @param relation    Equivalence relation by which the items are partitioned.
      * @param fingerprint Fingerprint function that maps items of type T to integers,
      *                    such that two equivalent items have the same fingerprint.
-     *                    May be used to accelerate the partitioning.
+     *                    May be used to accelerate the partitioning. If it is also
+     *                    a LongFingerprint, its 64-bit fingerprint is used.
      */
+    @SuppressWarnings("unchecked")
     public Partition(
             Iterable<T> items,
             EquivalenceRelation<T> relation,
@@ -67,8 +91,12 @@ public class Partition<T> {
     ) {
         this.relation = relation;
         this.fingerprint = fingerprint;
+        if (fingerprint instanceof LongFingerprint)
+            longFingerprint = (LongFingerprint<T>) fingerprint;
         classes = new ArrayList<>();
-        classesWithFingerprint = new HashMap<>();
+        classWithFingerprint = new FingerprintIndex();
+        nextWithFingerprint = new int[16];
+        unknownItems = new ArrayList<>();
 
         for (T item : items) {
             add(item);
@@ -116,44 +144,67 @@ public class Partition<T> {
     public void add(T item) {
 
         // determine fingerprint
-        int f = fingerprint.fingerprint(item);
+        long f = fingerprintOf(item);
 
-        // if no other item with the same fingerprint exists
-        if (!classesWithFingerprint.containsKey(f)) {
+        // the first class in the family of classes associated to the fingerprint
+        int first = classWithFingerprint.get(f);
 
-            // create a new family of classes associated to the fingerprint
-            EquivalenceClass<T> newClass = new EquivalenceClass<T>(item);
-            List<EquivalenceClass<T>> newFamily = new ArrayList<>();
-            newFamily.add(newClass);
+        // whether the relation could not decide for some class
+        boolean undecided = false;
 
-            classesWithFingerprint.put(f, newFamily);
-            classes.add(newClass);
-        } else {
+        // the last class in the family
+        int last = -1;
 
+        // for each equivalence class in this family
+        for (int c = first; c != -1; c = nextWithFingerprint[c]) {
+            last = c;
 
-            // determine the family of equivalence classes associated to this fingerprint
-            List<EquivalenceClass<T>> family = classesWithFingerprint.get(f);
+            // test whether item fits in this class
+            EquivalenceClass<T> eqclass = classes.get(c);
+            T repr = eqclass.getRepresentative();
+            Outcome outcome = relation.test(repr, item);
 
+            // if item fits into the current class
+            if (outcome == Outcome.EQUIVALENT) {
+                eqclass.add(item);  // uncomment to save storage
+                return;
+            }
 
-            // for each equivalence class in this family
-            for (EquivalenceClass<T> eqclass : family) {
+            if (outcome == Outcome.UNKNOWN)
+                undecided = true;
+        }
 
-                // test whether item fits in this class
-                T repr = eqclass.getRepresentative();
+        // the item might belong to an existing class, so it must not found a new one
+        if (undecided) {
+            unknownItems.add(item);
+            return;
+        }
 
-                // if item fits into the current class
-                if (relation.equivalent(repr, item)) {
-                    eqclass.add(item);  // uncomment to save storage
-                    return;
-                }
-            }
+        // if item fits into no class in this family (or there is no such family)
+        // create a new class with itself as representative
+        int c = classes.size();
+        classes.add(new EquivalenceClass<>(item));
+        if (c >= nextWithFingerprint.length)
+            nextWithFingerprint = Arrays.copyOf(nextWithFingerprint, Math.max(2 * nextWithFingerprint.length, c + 1));
+        nextWithFingerprint[c] = -1;
+
+        // append the class to the family, or create a new family associated to the fingerprint
+        if (last != -1)
+            nextWithFingerprint[last] = c;
+        else
+            classWithFingerprint.put(f, c);
+    }
 
-            // if item fits into no class in this family
-            // create a new class with itself as representative
-            EquivalenceClass<T> newClass = new EquivalenceClass<>(item);
-            classes.add(newClass);
-            family.add(newClass);
-        }
+    /**
+     * Return the fingerprint of an item.
+     *
+     * @param item
+     * @return
+     */
+    private long fingerprintOf(T item) {
+        if (longFingerprint != null)
+            return longFingerprint.longFingerprint(item);
+        return fingerprint.fingerprint(item);
     }
 
 
@@ -167,6 +218,26 @@ public class Partition<T> {
         return classes;
     }
 
+    /**
+     * Return the items that could not be assigned to an equivalence class, because
+     * the relation could not decide whether they are equivalent to some representative.
+     *
+     * @return
+     */
+    public List<T> getUnknownItems() {
+        return unknownItems;
+    }
+
+    /**
+     * Return the statistics of the equivalence tests aggregated over all items added
+     * so far, or null if the relation does not collect statistics.
+     *
+     * @return
+     */
+    public SearchStatistics getStatistics() {
+        return relation.getStatistics();
+    }
+
     /**
      * Return the class of items which are equivalent to the given item.
      *
@@ -176,22 +247,13 @@ public class Partition<T> {
     public EquivalenceClass<T> getEquivalentItems(T item) {
 
         // determine fingerprint
-        int f = fingerprint.fingerprint(item);
-
-        // if no item with the same fingerprint exists
-        if (!classesWithFingerprint.containsKey(f)) {
+        long f = fingerprintOf(item);
 
-            // return an empty equivalence class
-            return new EquivalenceClass<>();
-        }
-
-        // determine the family of equivalence classes associated to this fingerprint
-        List<EquivalenceClass<T>> family = classesWithFingerprint.get(f);
-
-        // for each equivalence class in this family
-        for (EquivalenceClass<T> eqclass : family) {
+        // for each equivalence class in the family associated to this fingerprint
+        for (int c = classWithFingerprint.get(f); c != -1; c = nextWithFingerprint[c]) {
 
             // test whether item fits in this class
+            EquivalenceClass<T> eqclass = classes.get(c);
             T repr = eqclass.getRepresentative();
 
             // if item fits into the current class
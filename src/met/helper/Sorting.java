@@ -0,0 +1,82 @@
+package met.helper;
+
+/**
+ * Sorting routines on primitive arrays.
+ */
+public class Sorting {
+
+    // ranges of at most this length are sorted by insertion sort
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private Sorting() {
+    }
+
+    /**
+     * Sort the range [from, to) of keys in non-decreasing order and apply the
+     * same permutation to the range [from, to) of values.
+     * <p>
+     * The sort is not stable.
+     *
+     * @param keys   Sort keys.
+     * @param values Values associated to the keys.
+     * @param from   First index (inclusive).
+     * @param to     Last index (exclusive).
+     */
+    public static void sort(long[] keys, int[] values, int from, int to) {
+
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+
+            // median of three as pivot
+            int mid = (from + to) >>> 1;
+            if (keys[mid] < keys[from]) swap(keys, values, mid, from);
+            if (keys[to - 1] < keys[from]) swap(keys, values, to - 1, from);
+            if (keys[to - 1] < keys[mid]) swap(keys, values, to - 1, mid);
+            long pivot = keys[mid];
+
+            // Hoare partition
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // recurse into the smaller part, iterate on the larger one
+            if (j + 1 - from < to - i) {
+                sort(keys, values, from, j + 1);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j + 1;
+            }
+        }
+
+        // insertion sort
+        for (int i = from + 1; i < to; i++) {
+            long key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(long[] keys, int[] values, int i, int j) {
+        long k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+        int v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+    }
+}
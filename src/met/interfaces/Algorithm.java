@@ -1,5 +1,6 @@
 package met.interfaces;
 
+import met.algorithm.SearchStatistics;
 import met.molecule.Atom;
 
 import java.util.Map;
@@ -12,6 +13,16 @@ public interface Algorithm {
      */
     boolean areEquivalent();
 
+    /**
+     * Return the outcome of the equivalence test. If the test has been aborted before
+     * a decision was reached, the outcome is Outcome.UNKNOWN and areEquivalent() returns false.
+     *
+     * @return
+     */
+    default Outcome getOutcome() {
+        return areEquivalent() ? Outcome.EQUIVALENT : Outcome.NOT_EQUIVALENT;
+    }
+
     /**
      * If the two graphs are isomorphic, return the met.algorithm function that maps nodes from g1 to g2.
      * If the two graphs are non-isomorphic, return null.
@@ -20,4 +31,13 @@ public interface Algorithm {
      */
     Map<Atom, Atom> getAtomMapping();
 
+    /**
+     * Return statistics about the test, or null if the algorithm does not collect them.
+     *
+     * @return
+     */
+    default SearchStatistics getStatistics() {
+        return null;
+    }
+
 }
@@ -1,5 +1,7 @@
 package met.interfaces;
 
+import met.algorithm.SearchStatistics;
+
 public interface EquivalenceRelation<T> {
 
     /**
@@ -10,4 +12,28 @@ public interface EquivalenceRelation<T> {
      * @return True, if and only if x is equivalent to y.
      */
     boolean equivalent(T x, T y);
+
+    /**
+     * Test whether two items are equivalent, allowing the test to give up.
+     * <p>
+     * The default implementation never gives up. Relations whose test may be aborted,
+     * e.g. by a time limit, override this method to return Outcome.UNKNOWN in this case.
+     *
+     * @param x Item.
+     * @param y Another item.
+     * @return The outcome of the test.
+     */
+    default Outcome test(T x, T y) {
+        return equivalent(x, y) ? Outcome.EQUIVALENT : Outcome.NOT_EQUIVALENT;
+    }
+
+    /**
+     * Return the statistics aggregated over all tests of this relation, or null if
+     * the relation does not collect statistics.
+     *
+     * @return
+     */
+    default SearchStatistics getStatistics() {
+        return null;
+    }
 }
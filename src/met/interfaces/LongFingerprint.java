@@ -0,0 +1,20 @@
+package met.interfaces;
+
+/**
+ * Interface for fingerprint functions that map items of type T to 64-bit integers.
+ *
+ * Two equivalent items need to have the same fingerprint. A partition prefers the
+ * 64-bit fingerprint over the 32-bit one of Fingerprint, as it produces far fewer
+ * collisions among large numbers of classes.
+ *
+ */
+public interface LongFingerprint<T> {
+
+    /**
+     * Create the 64-bit fingerprint of item x.
+     * @param x
+     * @return
+     */
+    long longFingerprint(T x);
+
+}
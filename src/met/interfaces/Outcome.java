@@ -0,0 +1,16 @@
+package met.interfaces;
+
+/**
+ * Result of an equivalence test that may be aborted.
+ */
+public enum Outcome {
+
+    // the items are equivalent
+    EQUIVALENT,
+
+    // the items are not equivalent
+    NOT_EQUIVALENT,
+
+    // the test has been aborted before a decision was reached
+    UNKNOWN
+}
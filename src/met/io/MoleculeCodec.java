@@ -0,0 +1,219 @@
+package met.io;
+
+import met.molecule.EquivalenceConfiguration;
+import met.molecule.Molecule;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary encoding of a single molecule graph, shared by the library files
+ * (MoleculeWriter, MoleculeLibrary) and the off-heap MoleculeStore.
+ * <p>
+ * Record layout (big-endian):
+ * <pre>
+ * int atom count n, int adjacency entries m, int data field count f,
+ * int equivalence configuration mask,
+ * short[n] atomic number, byte[n] formal charge, byte[n] single electrons,
+ * short[n] hydrogen count, short[n] deuterium count, long[n] neighborhood descriptor,
+ * degree[n], neighbor[m] (as short if n &lt;= 65536, else as int), byte[m] bond label,
+ * f times (int length, UTF-8 key, int length, UTF-8 value)
+ * </pre>
+ */
+final class MoleculeCodec {
+
+    // largest atom count for which atom ids are stored in two bytes
+    static final int NARROW_ATOM_COUNT = 1 << 16;
+
+    // names of the data fields to be stored
+    private final String[] fields;
+
+    // buffer holding the last encoded record
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+
+    /**
+     * Create a codec.
+     *
+     * @param fields Names of the data fields to be stored with each molecule.
+     */
+    MoleculeCodec(String[] fields) {
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Encode a molecule. The returned buffer holds the record between position
+     * zero and its limit and is overwritten by the next call.
+     *
+     * @param mol
+     * @return
+     */
+    ByteBuffer encode(Molecule mol) {
+
+        // test whether the atom properties fit into their fields
+        int n = mol.getAtomCount();
+        int entries = 0;
+        for (int v = 0; v < n; v++) {
+            checkRange(mol.getAtomicNumber(v), 0, Short.MAX_VALUE, "atomic number");
+            checkRange(mol.getFormalCharge(v), Byte.MIN_VALUE, Byte.MAX_VALUE, "formal charge");
+            checkRange(mol.getSingleElectronCount(v), 0, Byte.MAX_VALUE, "single electron count");
+            checkRange(mol.getHydrogenCount(v), 0, Short.MAX_VALUE, "hydrogen count");
+            checkRange(mol.getDeuteriumCount(v), 0, Short.MAX_VALUE, "deuterium count");
+            entries += mol.getDegree(v);
+        }
+        boolean wide = n > NARROW_ATOM_COUNT;
+
+        // data fields of the molecule
+        byte[][] keys = new byte[fields.length][];
+        byte[][] values = new byte[fields.length][];
+        int fieldCount = 0;
+        long size = 16 + 16L * n + (long) (wide ? 4 : 2) * (n + entries) + entries;
+        for (String field : fields) {
+            String value = mol.getProperty(field);
+            if (value != null) {
+                keys[fieldCount] = field.getBytes(StandardCharsets.UTF_8);
+                values[fieldCount] = value.getBytes(StandardCharsets.UTF_8);
+                size += 8 + keys[fieldCount].length + values[fieldCount].length;
+                fieldCount++;
+            }
+        }
+
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Error: Molecule is too large to be stored!");
+        if (buffer.capacity() < size)
+            buffer = ByteBuffer.allocate((int) Math.max(size, Math.min(Integer.MAX_VALUE, 2L * buffer.capacity())));
+        ByteBuffer b = buffer;
+        b.clear();
+
+        b.putInt(n);
+        b.putInt(entries);
+        b.putInt(fieldCount);
+        b.putInt(mol.getConfiguration().getMask());
+
+        for (int v = 0; v < n; v++)
+            b.putShort((short) mol.getAtomicNumber(v));
+        for (int v = 0; v < n; v++)
+            b.put((byte) mol.getFormalCharge(v));
+        for (int v = 0; v < n; v++)
+            b.put((byte) mol.getSingleElectronCount(v));
+        for (int v = 0; v < n; v++)
+            b.putShort((short) mol.getHydrogenCount(v));
+        for (int v = 0; v < n; v++)
+            b.putShort((short) mol.getDeuteriumCount(v));
+        for (int v = 0; v < n; v++)
+            b.putLong(mol.getAtom(v).getProperties().getNeighborhoodDescriptor());
+
+        // adjacency lists as degrees, neighbors and bond labels
+        for (int v = 0; v < n; v++)
+            putIndex(b, mol.getDegree(v), wide);
+        for (int v = 0; v < n; v++) {
+            for (int k = 0; k < mol.getDegree(v); k++)
+                putIndex(b, mol.getAdjacentAtom(v, k), wide);
+        }
+        for (int v = 0; v < n; v++) {
+            for (int k = 0; k < mol.getDegree(v); k++)
+                b.put((byte) mol.getAdjacentBondLabel(v, k));
+        }
+
+        for (int i = 0; i < fieldCount; i++) {
+            b.putInt(keys[i].length);
+            b.put(keys[i]);
+            b.putInt(values[i].length);
+            b.put(values[i]);
+        }
+
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Decode the molecule whose record starts at the position of a buffer.
+     * The position of the buffer is moved behind the record.
+     *
+     * @param b
+     * @return
+     */
+    static Molecule decode(ByteBuffer b) {
+
+        int n = b.getInt();
+        int entries = b.getInt();
+        int fieldCount = b.getInt();
+        EquivalenceConfiguration configuration = EquivalenceConfiguration.fromMask(b.getInt());
+        boolean wide = n > NARROW_ATOM_COUNT;
+
+        int[] atomicNumber = new int[n];
+        int[] formalCharge = new int[n];
+        int[] singleElectrons = new int[n];
+        int[] hydrogenCount = new int[n];
+        int[] deuteriumCount = new int[n];
+        long[] neighborhoodDescriptor = new long[n];
+        for (int v = 0; v < n; v++)
+            atomicNumber[v] = b.getShort();
+        for (int v = 0; v < n; v++)
+            formalCharge[v] = b.get();
+        for (int v = 0; v < n; v++)
+            singleElectrons[v] = b.get();
+        for (int v = 0; v < n; v++)
+            hydrogenCount[v] = b.getShort();
+        for (int v = 0; v < n; v++)
+            deuteriumCount[v] = b.getShort();
+        for (int v = 0; v < n; v++)
+            neighborhoodDescriptor[v] = b.getLong();
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++)
+            offsets[v + 1] = offsets[v] + getIndex(b, wide);
+        int[] neighbors = new int[entries];
+        for (int k = 0; k < entries; k++)
+            neighbors[k] = getIndex(b, wide);
+        byte[] bondLabel = new byte[entries];
+        b.get(bondLabel);
+
+        Map<String, String> properties = null;
+        if (fieldCount > 0) {
+            properties = new HashMap<>();
+            for (int f = 0; f < fieldCount; f++) {
+                String key = getString(b);
+                properties.put(key, getString(b));
+            }
+        }
+
+        return new Molecule(n, atomicNumber, formalCharge, singleElectrons, hydrogenCount, deuteriumCount,
+                offsets, neighbors, bondLabel, neighborhoodDescriptor, properties, configuration);
+    }
+
+    /**
+     * Write an atom id or degree, in two bytes unless the molecule is wide.
+     */
+    private static void putIndex(ByteBuffer b, int value, boolean wide) {
+        if (wide)
+            b.putInt(value);
+        else
+            b.putShort((short) value);
+    }
+
+    /**
+     * Read an atom id or degree, stored in two bytes unless the molecule is wide.
+     */
+    private static int getIndex(ByteBuffer b, boolean wide) {
+        return wide ? b.getInt() : Short.toUnsignedInt(b.getShort());
+    }
+
+    /**
+     * Read a string stored as length and UTF-8 bytes.
+     */
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test whether a value fits into its field of the record.
+     */
+    private static void checkRange(int value, int min, int max, String name) {
+        if (value < min || value > max)
+            throw new IllegalArgumentException("Error: " + name + " " + value + " cannot be stored!");
+    }
+}
@@ -0,0 +1,213 @@
+package met.io;
+
+import met.molecule.Molecule;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only access to a binary library of molecule graphs written by MoleculeWriter.
+ * <p>
+ * The file is memory-mapped, and a molecule is only decoded when it is requested by
+ * get(), so that opening a library costs little more than reading its index. The
+ * fingerprint of each molecule is part of the index and can be obtained without
+ * decoding the molecule.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * header:  int MAGIC, int VERSION, long record count, long index offset
+ * records: see MoleculeCodec
+ * index:   long[count + 1] record offsets, int[count] fingerprints
+ * </pre>
+ * The neighborhood descriptors depend on the atom properties and on the hash
+ * functions. Whenever one of them changes, VERSION has to be increased, as stored
+ * descriptors would not match freshly computed ones anymore.
+ */
+public class MoleculeLibrary implements Iterable<Molecule>, Closeable {
+
+    // "METB"
+    static final int MAGIC = 0x4D455442;
+    static final int VERSION = 5;
+    static final int HEADER_SIZE = 24;
+
+    /*
+     * The file is mapped in overlapping segments: segment k starts at k * SEGMENT_SIZE
+     * and covers two segment sizes, so that each record of at most SEGMENT_SIZE bytes
+     * lies completely in the segment in which it starts.
+     */
+    private static final long SEGMENT_SIZE = 1L << 29;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final MappedByteBuffer[] segments;
+
+    // offset of each record (plus the end of the last record) and fingerprint of each molecule
+    private final long[] offsets;
+    private final int[] fingerprints;
+
+    /**
+     * Open a library file.
+     *
+     * @param file Path of the library file.
+     * @throws IOException If the file cannot be read or is no library of this version.
+     */
+    public MoleculeLibrary(Path file) throws IOException {
+
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        fileSize = channel.size();
+        segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, HEADER_SIZE));
+        if (fileSize < HEADER_SIZE || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException("Error: " + file + " is no molecule library!");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException("Error: " + file + " has version " + version + " instead of " + VERSION + "!");
+        }
+        long count = header.getLong();
+        long indexOffset = header.getLong();
+        // a writer that has not been closed leaves the index offset zero
+        if (count < 0 || count >= Integer.MAX_VALUE || indexOffset < HEADER_SIZE
+                || indexOffset + 12 * count + 8 > fileSize) {
+            channel.close();
+            throw new IOException("Error: " + file + " is incomplete!");
+        }
+
+        // read the index
+        int n = (int) count;
+        ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 12L * n + 8);
+        offsets = new long[n + 1];
+        fingerprints = new int[n];
+        index.asLongBuffer().get(offsets);
+        index.position(8 * (n + 1));
+        index.asIntBuffer().get(fingerprints);
+
+        // the last offset marks the end of the records, where the index starts
+        if (offsets[n] != indexOffset) {
+            channel.close();
+            throw new IOException("Error: " + file + " is incomplete!");
+        }
+    }
+
+    /**
+     * Test whether a file starts like a molecule library.
+     *
+     * @param file
+     * @return
+     */
+    public static boolean isLibrary(Path file) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return ch.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the number of molecules.
+     *
+     * @return
+     */
+    public int size() {
+        return fingerprints.length;
+    }
+
+    /**
+     * Return the fingerprint of the i-th molecule, i.e. the hash code of its molecule
+     * properties, without decoding the molecule.
+     *
+     * @param i
+     * @return
+     */
+    public int getFingerprint(int i) {
+        return fingerprints[i];
+    }
+
+    /**
+     * Decode the i-th molecule.
+     *
+     * @param i
+     * @return
+     */
+    public Molecule get(int i) {
+        return MoleculeCodec.decode(record(i));
+    }
+
+    /**
+     * Return a buffer positioned at the start of the i-th record.
+     */
+    private ByteBuffer record(int i) {
+
+        long start = offsets[i];
+        if (offsets[i + 1] - start > SEGMENT_SIZE)
+            throw new IllegalStateException("Error: Record " + i + " is too large!");
+
+        int k = (int) (start / SEGMENT_SIZE);
+        ByteBuffer b = segment(k).duplicate();
+        b.position((int) (start - k * SEGMENT_SIZE));
+        return b;
+    }
+
+    /**
+     * Return the k-th segment of the file, which is mapped on first use.
+     */
+    private synchronized MappedByteBuffer segment(int k) {
+        if (segments[k] == null) {
+            long start = k * SEGMENT_SIZE;
+            long size = Math.min(fileSize - start, 2 * SEGMENT_SIZE);
+            try {
+                segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error: Cannot map segment " + k + " of the library!", e);
+            }
+        }
+        return segments[k];
+    }
+
+    /**
+     * Iterate over all molecules in the order in which they have been written.
+     *
+     * @return
+     */
+    @Override
+    public Iterator<Molecule> iterator() {
+        return new Iterator<Molecule>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public Molecule next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Close the library file. Segments that have already been mapped stay valid
+     * until they are garbage collected.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
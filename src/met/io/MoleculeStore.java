@@ -0,0 +1,131 @@
+package met.io;
+
+import met.molecule.Molecule;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap arena of molecule graphs.
+ * <p>
+ * Each molecule is encoded into a packed record (see MoleculeCodec) and appended
+ * to a chunk of direct memory. On the heap, only the address and the fingerprint
+ * of each molecule remain (12 bytes per molecule), so that a store of millions of
+ * molecules needs neither Atom nor AtomProperties objects nor CDK containers.
+ * A molecule is decoded on demand by get(); the decoded object is short-lived
+ * and its neighborhood descriptors are taken from the record instead of being
+ * recomputed.
+ * <p>
+ * Molecules are identified by handles 0, 1, 2, ... in the order of insertion.
+ * The store only grows; the direct memory is released when the store is
+ * garbage collected.
+ */
+public class MoleculeStore {
+
+    // default size of a chunk of direct memory
+    private static final int CHUNK_SIZE = 1 << 26;
+
+    // encoder of the records
+    private final MoleculeCodec codec;
+
+    // chunks of direct memory; only the last chunk is filled
+    private ByteBuffer[] chunks = new ByteBuffer[16];
+    private int chunkCount;
+
+    // address of each molecule (chunk index in the upper, offset in the lower 32 bits)
+    private long[] address = new long[1024];
+
+    // fingerprint of each molecule
+    private int[] fingerprints = new int[1024];
+
+    // number of stored molecules, and number of bytes used by their records
+    private int count;
+    private long byteCount;
+
+    /**
+     * Create an empty store.
+     *
+     * @param fields Names of the data fields to be stored with each molecule.
+     */
+    public MoleculeStore(String... fields) {
+        codec = new MoleculeCodec(fields);
+    }
+
+    /**
+     * Append a molecule to the store.
+     *
+     * @param mol
+     * @return Handle of the molecule.
+     */
+    public synchronized int add(Molecule mol) {
+
+        ByteBuffer record = codec.encode(mol);
+        int size = record.limit();
+
+        // start a new chunk if the record does not fit into the current one
+        if (chunkCount == 0 || chunks[chunkCount - 1].remaining() < size) {
+            if (chunkCount == chunks.length)
+                chunks = Arrays.copyOf(chunks, 2 * chunkCount);
+            chunks[chunkCount++] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, size));
+        }
+        ByteBuffer chunk = chunks[chunkCount - 1];
+
+        if (count == address.length) {
+            address = Arrays.copyOf(address, 2 * count);
+            fingerprints = Arrays.copyOf(fingerprints, 2 * count);
+        }
+        address[count] = ((long) (chunkCount - 1) << 32) | chunk.position();
+        fingerprints[count] = mol.getProperties().hashCode();
+
+        chunk.put(record);
+        byteCount += size;
+
+        return count++;
+    }
+
+    /**
+     * Decode a stored molecule.
+     *
+     * @param handle Handle returned by add().
+     * @return
+     */
+    public Molecule get(int handle) {
+        ByteBuffer b;
+        synchronized (this) {
+            if (handle < 0 || handle >= count)
+                throw new IndexOutOfBoundsException("Error: Unknown molecule " + handle + "!");
+            b = chunks[(int) (address[handle] >>> 32)].duplicate();
+            b.position((int) address[handle]);
+        }
+        return MoleculeCodec.decode(b);
+    }
+
+    /**
+     * Return the fingerprint of a stored molecule, i.e. the hash code of its molecule
+     * properties, without decoding the molecule.
+     *
+     * @param handle
+     * @return
+     */
+    public synchronized int getFingerprint(int handle) {
+        return fingerprints[handle];
+    }
+
+    /**
+     * Return the number of stored molecules.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Return the number of bytes of direct memory used by the records.
+     *
+     * @return
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+}
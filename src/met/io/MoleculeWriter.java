@@ -0,0 +1,107 @@
+package met.io;
+
+import met.molecule.Molecule;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Write molecule graphs into a binary library file that can be read by MoleculeLibrary.
+ * <p>
+ * Each record stores a molecule after hydrogen folding, together with its atom
+ * properties, neighborhood descriptors, fingerprint and selected data fields, so
+ * that reading a molecule neither parses a molfile nor repeats the color refinement.
+ * See MoleculeLibrary and MoleculeCodec for the file layout.
+ */
+public class MoleculeWriter implements Closeable {
+
+    // path and output stream of the library file
+    private final Path file;
+    private final DataOutputStream out;
+
+    // number of bytes written so far
+    private long position;
+
+    // encoder of the records
+    private final MoleculeCodec codec;
+
+    // offset of each record and fingerprint of each molecule
+    private long[] offsets = new long[1024];
+    private int[] fingerprints = new int[1024];
+    private int count;
+
+    /**
+     * Create a new library file.
+     *
+     * @param file   Path of the library file.
+     * @param fields Names of the data fields to be stored with each molecule.
+     * @throws IOException
+     */
+    public MoleculeWriter(Path file, String... fields) throws IOException {
+        this.file = file;
+        codec = new MoleculeCodec(fields);
+        OutputStream stream = Files.newOutputStream(file);
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+
+        // header, the record count and index offset are written by close()
+        out.writeInt(MoleculeLibrary.MAGIC);
+        out.writeInt(MoleculeLibrary.VERSION);
+        out.writeLong(0);
+        out.writeLong(0);
+        position = MoleculeLibrary.HEADER_SIZE;
+    }
+
+    /**
+     * Append a molecule to the library.
+     *
+     * @param mol
+     * @throws IOException
+     */
+    public void write(Molecule mol) throws IOException {
+
+        ByteBuffer record = codec.encode(mol);
+
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * count);
+            fingerprints = Arrays.copyOf(fingerprints, 2 * count);
+        }
+        offsets[count] = position;
+        fingerprints[count] = mol.getProperties().hashCode();
+        count++;
+
+        out.write(record.array(), 0, record.limit());
+        position += record.limit();
+    }
+
+    /**
+     * Write the index and complete the header.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+
+        // index: offset of each record plus the end of the last record, and the fingerprints
+        long indexOffset = position;
+        for (int i = 0; i < count; i++)
+            out.writeLong(offsets[i]);
+        out.writeLong(indexOffset);
+        for (int i = 0; i < count; i++)
+            out.writeInt(fingerprints[i]);
+        out.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(8);
+            raf.writeLong(count);
+            raf.writeLong(indexOffset);
+        }
+    }
+}
@@ -0,0 +1,904 @@
+package met.io;
+
+import met.helper.Hashing;
+import met.molecule.Bond;
+import met.molecule.EquivalenceConfiguration;
+import met.molecule.Molecule;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader of SD files (V2000 and V3000 molfiles) that builds molecule
+ * graphs without creating CDK objects.
+ * <p>
+ * The input is read through a byte buffer and split into lines in place. Numbers
+ * and element symbols are parsed directly from the bytes, and the atom and bond
+ * arrays are reused for all records, so that the only objects created per record
+ * are the molecule itself and the requested data fields.
+ * <p>
+ * Atom blocks, bond blocks, charges, isotopes and radicals (including the M  CHG,
+ * M  ISO and M  RAD property lines) are read; coordinates, stereo information and
+ * all other properties are ignored. Only the data fields whose names are given to
+ * the constructor are kept. Malformed records are skipped with a warning.
+ */
+public class SDFReader implements Iterator<Molecule>, Closeable {
+
+    /*
+     * Element symbols ordered by atomic number, and the mass number of the most
+     * abundant (or most stable) isotope of the first elements, which is needed to
+     * turn the mass differences of a V2000 atom block into mass numbers.
+     */
+    private static final String[] SYMBOLS = {"",
+            "H", "He", "Li", "Be", "B", "C", "N", "O", "F", "Ne",
+            "Na", "Mg", "Al", "Si", "P", "S", "Cl", "Ar", "K", "Ca",
+            "Sc", "Ti", "V", "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn",
+            "Ga", "Ge", "As", "Se", "Br", "Kr", "Rb", "Sr", "Y", "Zr",
+            "Nb", "Mo", "Tc", "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn",
+            "Sb", "Te", "I", "Xe", "Cs", "Ba", "La", "Ce", "Pr", "Nd",
+            "Pm", "Sm", "Eu", "Gd", "Tb", "Dy", "Ho", "Er", "Tm", "Yb",
+            "Lu", "Hf", "Ta", "W", "Re", "Os", "Ir", "Pt", "Au", "Hg",
+            "Tl", "Pb", "Bi", "Po", "At", "Rn", "Fr", "Ra", "Ac", "Th",
+            "Pa", "U", "Np", "Pu", "Am", "Cm", "Bk", "Cf", "Es", "Fm",
+            "Md", "No", "Lr", "Rf", "Db", "Sg", "Bh", "Hs", "Mt", "Ds",
+            "Rg", "Cn", "Nh", "Fl", "Mc", "Lv", "Ts", "Og"};
+
+    private static final int[] MAJOR_ISOTOPE = {0,
+            1, 4, 7, 9, 11, 12, 14, 16, 19, 20,
+            23, 24, 27, 28, 31, 32, 35, 40, 39, 40,
+            45, 48, 51, 52, 55, 56, 59, 58, 63, 64,
+            69, 74, 75, 80, 79, 84, 85, 88, 89, 90,
+            93, 98, 98, 102, 103, 106, 107, 114, 115, 120,
+            121, 130, 127, 132, 133, 138, 139, 140, 141, 142,
+            145, 152, 153, 158, 159, 164, 165, 166, 169, 174,
+            175, 180, 181, 184, 187, 192, 193, 195, 197, 202,
+            205, 208, 209, 209, 210, 222, 223, 226, 227, 232,
+            231, 238, 237, 244, 243, 247, 247, 251, 252, 257,
+            258, 259, 262};
+
+    // atomic number of each one- or two-letter symbol, indexed by symbolKey()
+    private static final int[] ATOMIC_NUMBER = new int[26 * 27];
+
+    static {
+        for (int z = 1; z < SYMBOLS.length; z++) {
+            String s = SYMBOLS[z];
+            ATOMIC_NUMBER[symbolKey(s.charAt(0), s.length() > 1 ? s.charAt(1) : ' ')] = z;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // input stream and read buffer
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // current line (without line terminator)
+    private byte[] line = new byte[256];
+    private int length;
+
+    // number of lines read so far (for warnings)
+    private long lineNumber;
+
+    // names of the data fields to be kept
+    private final String[] fields;
+
+    // definition of equivalence applied to the molecule graphs
+    private final EquivalenceConfiguration configuration;
+
+    // atom and bond arrays, reused for all records
+    private int atomCount;
+    private int bondCount;
+    private int[] atomicNumber = new int[64];
+    private int[] formalCharge = new int[64];
+    private int[] massNumber = new int[64];
+    private int[] singleElectrons = new int[64];
+    private boolean[] massDifference = new boolean[64];
+    private int[] bondBegin = new int[64];
+    private int[] bondEnd = new int[64];
+    private int[] bondLabel = new int[64];
+
+    /*
+     * Open-addressing table from the V3000 atom indices of the current record to
+     * their positions in the atom arrays. A slot is occupied iff its stamp is the
+     * current record, so that the table need not be cleared between records. It
+     * is kept at most half full and grows with the number of atoms read, not with
+     * the values of the indices.
+     */
+    private int[] indexKey = new int[128];
+    private int[] indexPosition = new int[128];
+    private int[] indexStamp = new int[128];
+    private int record;
+
+    // text of a V3000 line including its continuation lines, and the bounds of its blank-separated tokens
+    private byte[] v3000Line = new byte[256];
+    private int v3000Length;
+    private int[] tokenBegin = new int[16];
+    private int[] tokenEnd = new int[16];
+    private int tokenCount;
+
+    // next molecule to be returned, and whether the end of the input has been reached
+    private Molecule next;
+    private boolean endOfInput;
+
+    /**
+     * Create a reader of an SD file.
+     *
+     * @param in     Input stream of the SD file.
+     * @param fields Names of the data fields to be kept (such as PUBCHEM_COMPOUND_CID).
+     */
+    public SDFReader(InputStream in, String... fields) {
+        this(in, EquivalenceConfiguration.DEFAULT, fields);
+    }
+
+    /**
+     * Create a reader of an SD file whose molecule graphs follow a certain
+     * definition of equivalence.
+     *
+     * @param in            Input stream of the SD file.
+     * @param configuration Atom traits, bond orders and isotopes to be compared.
+     * @param fields        Names of the data fields to be kept (such as PUBCHEM_COMPOUND_CID).
+     */
+    public SDFReader(InputStream in, EquivalenceConfiguration configuration, String... fields) {
+        this.in = in;
+        this.configuration = configuration;
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Test whether there is a further molecule.
+     *
+     * @return
+     */
+    @Override
+    public boolean hasNext() {
+        while (next == null && !endOfInput) {
+            next = readRecord();
+        }
+        return next != null;
+    }
+
+    /**
+     * Return the next molecule.
+     *
+     * @return
+     */
+    @Override
+    public Molecule next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Molecule mol = next;
+        next = null;
+        return mol;
+    }
+
+    /**
+     * Close the underlying input stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /*************************************************************************
+     * Records
+     ************************************************************************/
+
+    /**
+     * Signals a malformed record. Thrown without stack trace, as it is caught
+     * by readRecord().
+     */
+    private static class MalformedRecordException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedRecordException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Read the next record. Return null if the record is malformed or if the end
+     * of the input has been reached.
+     *
+     * @return
+     */
+    private Molecule readRecord() {
+
+        // skip the three header lines (title, program, comment)
+        if (!readLine()) {
+            endOfInput = true;
+            return null;
+        }
+        long firstLine = lineNumber;
+
+        try {
+            // trailing lines at the end of the input
+            if (!readLine() || !readLine() || !readLine()) {
+                endOfInput = true;
+                return null;
+            }
+
+            // the counts line determines the version of the molfile
+            atomCount = 0;
+            bondCount = 0;
+            if (endsWith("V3000"))
+                readV3000();
+            else
+                readV2000();
+
+            Map<String, String> properties = readDataItems();
+
+            return new Molecule(atomCount, atomicNumber, formalCharge, massNumber, singleElectrons,
+                    bondCount, bondBegin, bondEnd, bondLabel, properties, configuration);
+
+        } catch (MalformedRecordException e) {
+            System.err.println("Warning: Skip malformed record starting in line " + firstLine
+                    + " (" + e.getMessage() + " in line " + lineNumber + ")!");
+            skipRecord();
+            return null;
+        }
+    }
+
+    /**
+     * Skip all lines up to and including the end of the current record.
+     */
+    private void skipRecord() {
+        while (!startsWith("$$$$")) {
+            if (!readLine()) {
+                endOfInput = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the data items following the connection table up to the end of the record.
+     *
+     * @return Values of the requested data fields, or null if there are none.
+     */
+    private Map<String, String> readDataItems() {
+
+        Map<String, String> properties = null;
+
+        while (readLine()) {
+
+            if (startsWith("$$$$"))
+                return properties;
+
+            // data header: > <NAME> ...
+            if (length == 0 || line[0] != '>')
+                continue;
+            int open = indexOf('<', 1);
+            int close = open == -1 ? -1 : indexOf('>', open + 1);
+            String field = close == -1 ? null : requestedField(open + 1, close);
+            if (field == null)
+                continue;
+
+            // the value ends at the next empty line
+            StringBuilder value = new StringBuilder();
+            while (readLine() && length > 0 && !startsWith("$$$$")) {
+                if (value.length() > 0)
+                    value.append('\n');
+                value.append(new String(line, 0, length, StandardCharsets.UTF_8));
+            }
+
+            if (properties == null)
+                properties = new HashMap<>();
+            properties.put(field, value.toString());
+
+            if (startsWith("$$$$"))
+                return properties;
+        }
+
+        endOfInput = true;
+        return properties;
+    }
+
+    /**
+     * Return the requested field whose name equals line[begin..end), or null.
+     */
+    private String requestedField(int begin, int end) {
+        for (String field : fields) {
+            if (field.length() != end - begin)
+                continue;
+            boolean equal = true;
+            for (int i = 0; i < field.length() && equal; i++) {
+                equal = field.charAt(i) == line[begin + i];
+            }
+            if (equal)
+                return field;
+        }
+        return null;
+    }
+
+    /*************************************************************************
+     * V2000 connection table
+     ************************************************************************/
+
+    /**
+     * Read a V2000 connection table. The current line is the counts line.
+     */
+    private void readV2000() throws MalformedRecordException {
+
+        int atoms = parseInt(0, 3);
+        int bonds = parseInt(3, 6);
+        ensureCapacity(atoms, bonds);
+
+        // atom block: symbol in columns 32-34, mass difference in 35-36, charge code in 37-39
+        for (int i = 0; i < atoms; i++) {
+            if (!readLine())
+                throw new MalformedRecordException("incomplete atom block");
+            int z = parseSymbol(31, 34);
+            atomicNumber[i] = z;
+            massNumber[i] = z >= 0 ? 0 : -z;
+            if (z < 0)
+                atomicNumber[i] = 1;
+
+            int difference = parseInt(34, 36);
+            massDifference[i] = difference != 0 && atomicNumber[i] < MAJOR_ISOTOPE.length;
+            if (massDifference[i])
+                massNumber[i] = MAJOR_ISOTOPE[atomicNumber[i]] + difference;
+
+            formalCharge[i] = 0;
+            singleElectrons[i] = 0;
+            int code = parseInt(36, 39);
+            if (code == 4)
+                singleElectrons[i] = 1;
+            else if (code >= 1 && code <= 7)
+                formalCharge[i] = 4 - code;
+        }
+        atomCount = atoms;
+
+        // bond block: first atom in columns 1-3, second atom in 4-6, bond type in 7-9
+        for (int b = 0; b < bonds; b++) {
+            if (!readLine())
+                throw new MalformedRecordException("incomplete bond block");
+            bondBegin[b] = atomIndex(parseInt(0, 3));
+            bondEnd[b] = atomIndex(parseInt(3, 6));
+            bondLabel[b] = label(parseInt(6, 9));
+        }
+        bondCount = bonds;
+
+        // properties block
+        boolean chargesSet = false;
+        boolean isotopesSet = false;
+        while (readLine()) {
+
+            if (startsWith("M  END"))
+                return;
+
+            // the record has no properties block
+            if (startsWith("$$$$") || (length > 0 && line[0] == '>'))
+                throw new MalformedRecordException("missing M  END");
+
+            // an alias line is followed by the alias text
+            if (startsWith("A  ")) {
+                readLine();
+                continue;
+            }
+
+            boolean charges = startsWith("M  CHG");
+            boolean radicals = startsWith("M  RAD");
+            boolean isotopes = startsWith("M  ISO");
+            if (!charges && !radicals && !isotopes)
+                continue;
+
+            // charge and radical lines supersede all charges and radicals of the atom block
+            if ((charges || radicals) && !chargesSet) {
+                Arrays.fill(formalCharge, 0, atomCount, 0);
+                Arrays.fill(singleElectrons, 0, atomCount, 0);
+                chargesSet = true;
+            }
+
+            // isotope lines supersede all mass differences of the atom block
+            if (isotopes && !isotopesSet) {
+                for (int i = 0; i < atomCount; i++) {
+                    if (massDifference[i])
+                        massNumber[i] = 0;
+                }
+                isotopesSet = true;
+            }
+
+            // M  XXXnn8 aaa vvv ...
+            int entries = parseInt(6, 9);
+            for (int k = 0; k < entries; k++) {
+                int column = 9 + 8 * k;
+                int i = atomIndex(parseInt(column, column + 4));
+                int value = parseInt(column + 4, column + 8);
+                if (charges)
+                    formalCharge[i] = value;
+                else if (radicals)
+                    singleElectrons[i] = value == 2 ? 1 : (value == 1 || value == 3 ? 2 : 0);
+                else
+                    massNumber[i] = value;
+            }
+        }
+
+        throw new MalformedRecordException("missing M  END");
+    }
+
+    /**
+     * Map a V2000 bond type onto a bond label.
+     */
+    private static int label(int type) {
+        switch (type) {
+            case 1:
+            case 2:
+            case 3:
+                return type;
+            case 4:
+                return Bond.AROMATIC;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Convert a 1-based atom number of the current record into an array index.
+     */
+    private int atomIndex(int number) throws MalformedRecordException {
+        if (number < 1 || number > atomCount)
+            throw new MalformedRecordException("invalid atom number " + number);
+        return number - 1;
+    }
+
+    /*************************************************************************
+     * V3000 connection table
+     ************************************************************************/
+
+    /**
+     * Read a V3000 connection table. The current line is the (V2000 style) counts line.
+     */
+    private void readV3000() throws MalformedRecordException {
+
+        // invalidate the atom indices of the previous records
+        if (++record == 0) {
+            Arrays.fill(indexStamp, 0);
+            record = 1;
+        }
+
+        int atoms = -1;
+        int bonds = -1;
+
+        while (readV3000Line()) {
+
+            if (tokenEquals(0, "END") && tokenEquals(1, "CTAB")) {
+                if (atomCount != Math.max(atoms, 0) || bondCount != Math.max(bonds, 0))
+                    throw new MalformedRecordException("incomplete connection table");
+            } else if (tokenEquals(0, "COUNTS")) {
+                atoms = parseToken(1, 0);
+                bonds = parseToken(2, 0);
+                if (atoms < 0 || bonds < 0)
+                    throw new MalformedRecordException("invalid counts line");
+            } else if (tokenEquals(0, "BEGIN") && tokenEquals(1, "ATOM")) {
+                if (atoms < 0)
+                    throw new MalformedRecordException("missing COUNTS");
+                // the arrays grow with the lines actually read, not with the claimed counts
+                for (int i = 0; i < atoms; i++) {
+                    if (!readV3000Line())
+                        throw new MalformedRecordException("incomplete atom block");
+                    ensureCapacity(i + 1, 0);
+                    readV3000Atom(i);
+                }
+                atomCount = atoms;
+            } else if (tokenEquals(0, "BEGIN") && tokenEquals(1, "BOND")) {
+                if (bonds < 0)
+                    throw new MalformedRecordException("missing COUNTS");
+                for (int b = 0; b < bonds; b++) {
+                    if (!readV3000Line())
+                        throw new MalformedRecordException("incomplete bond block");
+                    if (tokenCount < 4)
+                        throw new MalformedRecordException("invalid bond");
+                    ensureCapacity(0, b + 1);
+                    bondLabel[b] = label(parseToken(1, 0));
+                    bondBegin[b] = v3000AtomIndex(parseToken(2, 0));
+                    bondEnd[b] = v3000AtomIndex(parseToken(3, 0));
+                }
+                bondCount = bonds;
+            }
+        }
+
+        // the V3000 connection table ends at M  END
+        if (!startsWith("M  END"))
+            throw new MalformedRecordException("missing M  END");
+    }
+
+    /**
+     * Read the current line of a V3000 atom block: index type x y z aamap [KEY=VALUE ...]
+     */
+    private void readV3000Atom(int i) throws MalformedRecordException {
+
+        if (tokenCount < 6)
+            throw new MalformedRecordException("invalid atom");
+
+        // remember the position of the atom index
+        int index = parseToken(0, 0);
+        if (index < 1)
+            throw new MalformedRecordException("invalid atom index " + index);
+        putAtomIndex(index, i);
+
+        int z = parseSymbol(v3000Line, tokenBegin[1], tokenEnd[1]);
+        atomicNumber[i] = z < 0 ? 1 : z;
+        massNumber[i] = z < 0 ? -z : 0;
+        formalCharge[i] = 0;
+        singleElectrons[i] = 0;
+
+        for (int k = 6; k < tokenCount; k++) {
+            if (tokenStartsWith(k, "CHG=")) {
+                formalCharge[i] = parseToken(k, 4);
+            } else if (tokenStartsWith(k, "RAD=")) {
+                int value = parseToken(k, 4);
+                singleElectrons[i] = value == 2 ? 1 : (value == 1 || value == 3 ? 2 : 0);
+            } else if (tokenStartsWith(k, "MASS=")) {
+                massNumber[i] = parseToken(k, 5);
+            }
+        }
+    }
+
+    /**
+     * Store the position of a V3000 atom index of the current record.
+     */
+    private void putAtomIndex(int index, int i) throws MalformedRecordException {
+
+        // the table holds the i indices read so far and is kept at most half full
+        if (2 * (i + 1) > indexKey.length)
+            growIndexTable();
+
+        int mask = indexKey.length - 1;
+        int slot = (int) Hashing.mix(index) & mask;
+        while (indexStamp[slot] == record) {
+            if (indexKey[slot] == index)
+                throw new MalformedRecordException("duplicate atom index " + index);
+            slot = (slot + 1) & mask;
+        }
+        indexKey[slot] = index;
+        indexPosition[slot] = i;
+        indexStamp[slot] = record;
+    }
+
+    /**
+     * Double the index table and re-insert the indices of the current record.
+     */
+    private void growIndexTable() {
+
+        int[] oldKey = indexKey;
+        int[] oldPosition = indexPosition;
+        int[] oldStamp = indexStamp;
+        indexKey = new int[2 * oldKey.length];
+        indexPosition = new int[indexKey.length];
+        indexStamp = new int[indexKey.length];
+
+        int mask = indexKey.length - 1;
+        for (int s = 0; s < oldKey.length; s++) {
+            if (oldStamp[s] == record) {
+                int slot = (int) Hashing.mix(oldKey[s]) & mask;
+                while (indexStamp[slot] == record)
+                    slot = (slot + 1) & mask;
+                indexKey[slot] = oldKey[s];
+                indexPosition[slot] = oldPosition[s];
+                indexStamp[slot] = record;
+            }
+        }
+    }
+
+    /**
+     * Convert a V3000 atom index into an array index.
+     */
+    private int v3000AtomIndex(int index) throws MalformedRecordException {
+
+        int mask = indexKey.length - 1;
+        int slot = (int) Hashing.mix(index) & mask;
+        while (indexStamp[slot] == record) {
+            if (indexKey[slot] == index) {
+                int i = indexPosition[slot];
+                if (i >= atomCount)
+                    break;
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new MalformedRecordException("invalid atom index " + index);
+    }
+
+    /**
+     * Read the next V3000 line, join it with its continuation lines (ending with '-')
+     * and split it into tokens. Return false if the next line is no V3000 line.
+     */
+    private boolean readV3000Line() throws MalformedRecordException {
+
+        v3000Length = 0;
+        while (true) {
+            if (!readLine())
+                throw new MalformedRecordException("missing M  END");
+            if (!startsWith("M  V30 "))
+                return false;
+            int end = length;
+            boolean continued = end > 7 && line[end - 1] == '-';
+            if (continued)
+                end--;
+            int count = end - 7;
+            if (v3000Length + count > v3000Line.length)
+                v3000Line = Arrays.copyOf(v3000Line, Math.max(2 * v3000Line.length, v3000Length + count));
+            System.arraycopy(line, 7, v3000Line, v3000Length, count);
+            v3000Length += count;
+            if (!continued)
+                break;
+        }
+
+        // tokens are separated by blanks and tabs
+        tokenCount = 0;
+        int i = 0;
+        while (true) {
+            while (i < v3000Length && (v3000Line[i] == ' ' || v3000Line[i] == '\t'))
+                i++;
+            if (i == v3000Length)
+                return true;
+            if (tokenCount == tokenBegin.length) {
+                tokenBegin = Arrays.copyOf(tokenBegin, 2 * tokenCount);
+                tokenEnd = Arrays.copyOf(tokenEnd, 2 * tokenCount);
+            }
+            tokenBegin[tokenCount] = i;
+            while (i < v3000Length && v3000Line[i] != ' ' && v3000Line[i] != '\t')
+                i++;
+            tokenEnd[tokenCount++] = i;
+        }
+    }
+
+    /**
+     * Test whether the k-th token of the current V3000 line equals a certain word.
+     */
+    private boolean tokenEquals(int k, String word) {
+        return k < tokenCount && tokenEnd[k] - tokenBegin[k] == word.length() && tokenStartsWith(k, word);
+    }
+
+    /**
+     * Test whether the k-th token of the current V3000 line starts with a certain prefix.
+     */
+    private boolean tokenStartsWith(int k, String prefix) {
+        if (k >= tokenCount || tokenEnd[k] - tokenBegin[k] < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (v3000Line[tokenBegin[k] + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the k-th token of the current V3000 line, without its first skip
+     * characters (such as CHG=), as integer.
+     */
+    private int parseToken(int k, int skip) throws MalformedRecordException {
+        if (k >= tokenCount || tokenBegin[k] + skip >= tokenEnd[k])
+            throw new MalformedRecordException("missing value");
+        return parseInt(v3000Line, tokenBegin[k] + skip, tokenEnd[k]);
+    }
+
+    /*************************************************************************
+     * Parsing of the current line
+     ************************************************************************/
+
+    /**
+     * Parse the integer in columns [begin, end) of the current line. Blank columns
+     * and columns beyond the end of the line are ignored; blank fields are zero.
+     */
+    private int parseInt(int begin, int end) throws MalformedRecordException {
+        return parseInt(line, begin, Math.min(end, length));
+    }
+
+    /**
+     * Parse the integer in bytes[begin, end). Leading blanks and the bytes after the
+     * first blank following the digits are ignored; blank fields are zero.
+     */
+    private static int parseInt(byte[] bytes, int begin, int end) throws MalformedRecordException {
+
+        int i = begin;
+        while (i < end && bytes[i] == ' ')
+            i++;
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        int value = 0;
+        while (i < end && bytes[i] != ' ') {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new MalformedRecordException("invalid number");
+            if (value > (Integer.MAX_VALUE - digit) / 10)
+                throw new MalformedRecordException("number out of range");
+            value = 10 * value + digit;
+            i++;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the element symbol in columns [begin, end) of the current line.
+     * Return the atomic number, 0 for unknown symbols (such as R or *), or the
+     * negated mass number for the hydrogen isotopes D and T.
+     */
+    private int parseSymbol(int begin, int end) throws MalformedRecordException {
+        return parseSymbol(line, begin, Math.min(end, length));
+    }
+
+    /**
+     * Parse the element symbol in bytes[begin, end) (see parseSymbol(int, int)).
+     */
+    private static int parseSymbol(byte[] bytes, int begin, int end) throws MalformedRecordException {
+
+        int i = begin;
+        while (i < end && bytes[i] == ' ')
+            i++;
+        if (i == end)
+            throw new MalformedRecordException("missing element symbol");
+
+        int j = i;
+        while (j < end && bytes[j] != ' ')
+            j++;
+
+        if (j - i > 2)
+            return 0;
+        return atomicNumber((char) bytes[i], j - i > 1 ? (char) bytes[i + 1] : ' ');
+    }
+
+    /**
+     * Return the atomic number of a one- or two-letter symbol, 0 if unknown, or the
+     * negated mass number for D and T.
+     */
+    private static int atomicNumber(char first, char second) {
+        if (second == ' ') {
+            if (first == 'D')
+                return -2;
+            if (first == 'T')
+                return -3;
+        }
+        if (first < 'A' || first > 'Z' || (second != ' ' && (second < 'a' || second > 'z')))
+            return 0;
+        return ATOMIC_NUMBER[symbolKey(first, second)];
+    }
+
+    /**
+     * Return the index of a one- or two-letter symbol in ATOMIC_NUMBER.
+     */
+    private static int symbolKey(char first, char second) {
+        return (first - 'A') * 27 + (second == ' ' ? 0 : second - 'a' + 1);
+    }
+
+    /**
+     * Test whether the current line starts with a certain prefix.
+     */
+    private boolean startsWith(String prefix) {
+        if (length < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test whether the current line (without trailing blanks) ends with a certain suffix.
+     */
+    private boolean endsWith(String suffix) {
+        int end = length;
+        while (end > 0 && line[end - 1] == ' ')
+            end--;
+        int begin = end - suffix.length();
+        if (begin < 0)
+            return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (line[begin + i] != suffix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the first position of a character in the current line at or after from, or -1.
+     */
+    private int indexOf(char c, int from) {
+        for (int i = from; i < length; i++) {
+            if (line[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Grow the atom and bond arrays.
+     */
+    private void ensureCapacity(int atoms, int bonds) throws MalformedRecordException {
+
+        if (atoms < 0 || bonds < 0)
+            throw new MalformedRecordException("invalid counts line");
+
+        if (atomicNumber.length < atoms) {
+            int capacity = Math.max(2 * atomicNumber.length, atoms);
+            atomicNumber = new int[capacity];
+            formalCharge = new int[capacity];
+            massNumber = new int[capacity];
+            singleElectrons = new int[capacity];
+            massDifference = new boolean[capacity];
+        }
+
+        if (bondBegin.length < bonds) {
+            int capacity = Math.max(2 * bondBegin.length, bonds);
+            bondBegin = new int[capacity];
+            bondEnd = new int[capacity];
+            bondLabel = new int[capacity];
+        }
+    }
+
+    /*************************************************************************
+     * Line splitting
+     ************************************************************************/
+
+    /**
+     * Read the next line into the line buffer. Return false at the end of the input.
+     *
+     * @return
+     */
+    private boolean readLine() {
+
+        length = 0;
+        boolean any = false;
+
+        while (true) {
+
+            if (position == limit) {
+                try {
+                    limit = in.read(buffer, 0, buffer.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    if (any)
+                        lineNumber++;
+                    return any;
+                }
+            }
+
+            any = true;
+
+            // copy the bytes up to the next line feed
+            int start = position;
+            while (position < limit && buffer[position] != '\n')
+                position++;
+
+            int count = position - start;
+            if (length + count > line.length)
+                line = Arrays.copyOf(line, Math.max(2 * line.length, length + count));
+            System.arraycopy(buffer, start, line, length, count);
+            length += count;
+
+            if (position < limit) {
+
+                // skip the line feed and a preceding carriage return
+                position++;
+                if (length > 0 && line[length - 1] == '\r')
+                    length--;
+                lineNumber++;
+                return true;
+            }
+        }
+    }
+}
@@ -12,7 +12,7 @@ public class Atom implements Comparable<Atom> {
      * Create an atom associated to the i-th atom from a CDK container.
      *
      * @param index Unique identifier.
-     * @param iAtom CDK atom object.
+     * @param iAtom CDK atom object (null if the molecule has been read without CDK).
      */
     public Atom(int id, IAtom iAtom) {
         this.id = id;
@@ -30,7 +30,7 @@ public class Atom implements Comparable<Atom> {
     }
 
     /**
-     * Return the associated CDK object.
+     * Return the associated CDK object, or null.
      *
      * @return
      */
@@ -1,8 +1,6 @@
 package met.molecule;
 
-import org.openscience.cdk.interfaces.IAtom;
-import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.interfaces.IBond;
+import met.helper.Hashing;
 
 public class AtomProperties {
 
@@ -36,8 +34,34 @@ public class AtomProperties {
     private int doubleBonds;
     private int tripleBonds;
     //private int hybridisation;
-    //private int ringSize;
-    private int neighborhoodDescriptor;
+    private int ringSize;
+    private int ringBonds;
+    private long neighborhoodDescriptor;
+
+    /*
+     * The properties except for the neighborhood descriptor are packed once
+     * into a 64-bit invariant key, which is used for hashing, equality tests and
+     * grouping atoms. Bit layout (from the least significant bit):
+     *
+     *   bits  0- 7: symbol (atomic number)
+     *   bits  8-13: formal charge + 32
+     *   bits 14-16: number of single electrons
+     *   bits 17-21: hydrogen count
+     *   bits 22-26: deuterium count
+     *   bits 27-32: number of single bonds
+     *   bits 33-37: number of double bonds
+     *   bits 38-42: number of triple bonds
+     *   bits 43-48: size of the smallest ring (0 if the atom is not on a ring)
+     *   bits 49-53: number of ring bonds
+     *   bit     63: OVERFLOW
+     *
+     * If a property does not fit into its field, the key is a hash of all
+     * properties with the OVERFLOW bit set. Packed keys are equal iff the
+     * properties are equal, while equal keys with OVERFLOW bit need to be
+     * backed by a comparison of the properties.
+     */
+    public static final long OVERFLOW = 1L << 63;
+    private long invariantKey;
 
     /**
      * Create descriptor for an atom but do not yet initialize its members.
@@ -56,91 +80,90 @@ public class AtomProperties {
      */
     void initialize(Molecule molecule) {
 
-        // associated CDK objects
-        IAtom iAtom = atom.getIAtom();
-        IAtomContainer atomContainer = molecule.getCDKContainer();
+        int id = atom.getID();
 
         //*********************************************************************
         // Determine the element symbol
         //*********************************************************************
 
-        symbol = iAtom.getAtomicNumber();
+        symbol = molecule.getAtomicNumber(id);
 
         //*********************************************************************
         // Determine the number of single, double, triple bonds.
         //*********************************************************************
 
-        for (IBond b : atomContainer.getConnectedBondsList(iAtom)) {
-            String bo_type = b.getOrder().toString();
-            switch (bo_type) {
-                case "SINGLE":
+        for (int k = 0; k < molecule.getDegree(id); k++) {
+            switch (molecule.getAdjacentBondLabel(id, k) & ~Bond.AROMATIC) {
+                case 1:
                     singleBonds++;
                     break;
-                case "DOUBLE":
+                case 2:
                     doubleBonds++;
                     break;
-                case "TRIPLE":
+                case 3:
                     tripleBonds++;
                     break;
             }
         }
 
+        //*********************************************************************
+        // Determine the number of ring bonds and the smallest ring size.
+        //*********************************************************************
+
+        for (int k = 0; k < molecule.getDegree(id); k++) {
+            int size = molecule.getAdjacentRingSize(id, k);
+            if (size != 0) {
+                ringBonds++;
+                if (ringSize == 0 || size < ringSize)
+                    ringSize = size;
+            }
+        }
+
         //*********************************************************************
         // Determine the number of associated hydrogen atoms
         //*********************************************************************
-        hydrogenCount = iAtom.getImplicitHydrogenCount();
+        hydrogenCount = molecule.getHydrogenCount(id);
 
         //*********************************************************************
         // Determine the number of deuterium.
         //*********************************************************************
-
-        var prop = iAtom.getProperty("Deuterium");
-
-        // if the property does not exist, it is implicitly assumed to be zero
-        if (prop == null)
-            deuteriumCount = 0;
-        else
-            deuteriumCount = (int) prop;
+        deuteriumCount = molecule.getDeuteriumCount(id);
 
         //*********************************************************************
         // Determine the formal charge
         //*********************************************************************
 
-        formalCharge = iAtom.getFormalCharge();
+        formalCharge = molecule.getFormalCharge(id);
 
         //*********************************************************************
         // Determine the number of single electrons.
         //*********************************************************************
 
-        singleElectronCount = atomContainer.getConnectedSingleElectronsCount(iAtom);
+        singleElectronCount = molecule.getSingleElectronCount(id);
 
-        /*
         //*********************************************************************
-        // Determine the ring size
+        // Clear the traits that are not compared.
         //*********************************************************************
-        List<List<IAtomContainer>> lists = atomContainer.getProperty("Rings");
 
-        try {
+        EquivalenceConfiguration configuration = molecule.getConfiguration();
+        if (!configuration.compares(AtomTrait.SYMBOL))
+            symbol = 0;
+        if (!configuration.compares(AtomTrait.FORMAL_CHARGE))
+            formalCharge = 0;
+        if (!configuration.compares(AtomTrait.SINGLE_ELECTRON_COUNT))
+            singleElectronCount = 0;
+        if (!configuration.compares(AtomTrait.HYDROGEN_COUNT))
+            hydrogenCount = 0;
+        if (!configuration.compares(AtomTrait.DEUTERIUM_COUNT))
+            deuteriumCount = 0;
 
-            // determine the ring size with full rings
-            List<IAtomContainer> fused = lists.get(0);
-            for (int i = 0; i < fused.size(); i++) {
-                if (fused.get(i).contains(iAtom)) {
-                    ringSize += fused.get(i).getAtomCount();
-                }
-            }
+        //*********************************************************************
+        // Pack the properties into the invariant key.
+        //*********************************************************************
 
-            // determine the ring size with isolated rings
-            List<IAtomContainer> isolated = lists.get(1);
-            for (int i = 0; i < isolated.size(); i++) {
-                if (isolated.get(i).contains(iAtom)) {
-                    ringSize += isolated.get(i).getAtomCount();
-                }
-            }
-        } catch (Exception e) {
-            // do nothing
-        }
+        invariantKey = pack();
 
+        /*
         //*********************************************************************
         // Determine the hybridisation level (sp3, sp2, sp1)
         //*********************************************************************
@@ -173,12 +196,68 @@ public class AtomProperties {
         }*/
     }
 
+    /**
+     * Pack the properties into an invariant key (see above).
+     *
+     * @return
+     */
+    private long pack() {
+
+        long a = field(symbol, 0, 8, 0);
+        long b = field(formalCharge, 32, 6, 8);
+        long c = field(singleElectronCount, 0, 3, 14);
+        long d = field(hydrogenCount, 0, 5, 17);
+        long e = field(deuteriumCount, 0, 5, 22);
+        long f = field(singleBonds, 0, 6, 27);
+        long g = field(doubleBonds, 0, 5, 33);
+        long h = field(tripleBonds, 0, 5, 38);
+        long i = field(ringSize, 0, 6, 43);
+        long j = field(ringBonds, 0, 5, 49);
+
+        if (a >= 0 && b >= 0 && c >= 0 && d >= 0 && e >= 0 && f >= 0 && g >= 0 && h >= 0 && i >= 0 && j >= 0)
+            return a | b | c | d | e | f | g | h | i | j;
+
+        // overflow: hash all properties
+        long x = Hashing.mix(symbol);
+        x = Hashing.combine(x, formalCharge);
+        x = Hashing.combine(x, singleElectronCount);
+        x = Hashing.combine(x, hydrogenCount);
+        x = Hashing.combine(x, deuteriumCount);
+        x = Hashing.combine(x, singleBonds);
+        x = Hashing.combine(x, doubleBonds);
+        x = Hashing.combine(x, tripleBonds);
+        x = Hashing.combine(x, ringSize);
+        x = Hashing.combine(x, ringBonds);
+        return OVERFLOW | (x >>> 1);
+    }
+
+    /**
+     * Return value + offset shifted to its field, or -1 if it does not fit into the given number of bits.
+     */
+    private static long field(int value, int offset, int bits, int shift) {
+        long v = (long) value + offset;
+        if (v < 0 || v >= (1L << bits))
+            return -1;
+        return v << shift;
+    }
+
+    /**
+     * Return the invariant key that packs all properties except for the neighborhood descriptor.
+     * Two atoms have equal properties (apart from the descriptor) iff their keys are equal,
+     * unless the OVERFLOW bit is set.
+     *
+     * @return
+     */
+    public long getInvariantKey() {
+        return invariantKey;
+    }
+
     /**
      * Return the element symbol of this atom.
      *
      * @return
      */
-    int getSymbol() {
+    public int getSymbol() {
         return symbol;
     }
 
@@ -218,6 +297,25 @@ public class AtomProperties {
         return tripleBonds;
     }
 
+    /**
+     * Return the size of the smallest ring the atom is part of, or 0 if the atom
+     * is not on a ring.
+     *
+     * @return
+     */
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * Return the number of ring bonds.
+     *
+     * @return
+     */
+    public int getNumRingBonds() {
+        return ringBonds;
+    }
+
     /**
      * Return the deuterium count.
      *
@@ -250,7 +348,7 @@ public class AtomProperties {
      *
      * @return
      */
-    public int getNeighborhoodDescriptor() {
+    public long getNeighborhoodDescriptor() {
         return neighborhoodDescriptor;
     }
 
@@ -259,10 +357,34 @@ public class AtomProperties {
      *
      * @param d
      */
-    public void setNeighborhoodDescriptor(int d) {
+    public void setNeighborhoodDescriptor(long d) {
         neighborhoodDescriptor = d;
     }
 
+    /**
+     * Test whether an atom with these properties may be mapped onto an atom with
+     * the other properties when searching for a substructure: both atoms need the
+     * same element, charge and number of radicals, while the other atom needs at
+     * least as many hydrogen and deuterium atoms, bonds of each order and ring
+     * bonds. As each ring of the substructure is a ring of the target, a ring atom
+     * may only be mapped onto a ring atom whose smallest ring is not larger.
+     *
+     * @param other Properties of an atom in the target molecule.
+     * @return
+     */
+    public boolean isContainedIn(AtomProperties other) {
+        return symbol == other.symbol
+                && formalCharge == other.formalCharge
+                && singleElectronCount == other.singleElectronCount
+                && hydrogenCount <= other.hydrogenCount
+                && deuteriumCount <= other.deuteriumCount
+                && singleBonds <= other.singleBonds
+                && doubleBonds <= other.doubleBonds
+                && tripleBonds <= other.tripleBonds
+                && ringBonds <= other.ringBonds
+                && (ringSize == 0 || (other.ringSize != 0 && other.ringSize <= ringSize));
+    }
+
     /**
      * Return the concatenation of all properties.
      *
@@ -281,7 +403,8 @@ public class AtomProperties {
         sb.append(doubleBonds).append("_");
         sb.append(tripleBonds).append("_");
         //sb.append(hybridisation).append("_");
-        //sb.append(ringSize).append("_");
+        sb.append(ringSize).append("_");
+        sb.append(ringBonds).append("_");
         sb.append(neighborhoodDescriptor).append("_");
 
         return sb.toString();
@@ -289,8 +412,8 @@ public class AtomProperties {
 
     @Override
     public int hashCode() {
-        String str = toString();
-        return str.hashCode();
+        long h = Hashing.combine(invariantKey, neighborhoodDescriptor);
+        return (int) (h ^ (h >>> 32));
     }
 
     @Override
@@ -301,6 +424,12 @@ public class AtomProperties {
 
         AtomProperties other = (AtomProperties) o;
 
+        if (this.invariantKey != other.invariantKey) return false;
+        if (this.neighborhoodDescriptor != other.neighborhoodDescriptor) return false;
+
+        // packed keys are equal iff the properties are equal
+        if ((invariantKey & OVERFLOW) == 0) return true;
+
         if (this.symbol != other.symbol) return false;
         if (this.singleBonds != other.singleBonds) return false;
         if (this.doubleBonds != other.doubleBonds) return false;
@@ -309,10 +438,10 @@ public class AtomProperties {
         if (this.deuteriumCount != other.deuteriumCount) return false;
         if (this.formalCharge != other.formalCharge) return false;
         if (this.singleElectronCount != other.singleElectronCount) return false;
-        if (this.neighborhoodDescriptor != other.neighborhoodDescriptor) return false;
+        if (this.ringSize != other.ringSize) return false;
+        if (this.ringBonds != other.ringBonds) return false;
 
         //  if (this.getHybridisation() != other.getHybridisation()) return false;
-        //  if (this.getRingSize() != other.getRingSize()) return false;
 
         return true;
     }
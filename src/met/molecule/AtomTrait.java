@@ -9,8 +9,8 @@ package met.molecule;
  *
  * However, not all properties must be taken into account during the
  * equivalence test. The properties that should be considered during the
- * test must be "activated" before calling the areEquivalent() or
- * getAtomMapping() method.
+ * test are selected by an EquivalenceConfiguration when the molecule
+ * graphs are built.
  *
  *************************************************************************/
 
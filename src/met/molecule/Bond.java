@@ -1,21 +1,84 @@
 package met.molecule;
 
+import org.openscience.cdk.interfaces.IBond;
+
 /**
  * Model a bond between two atoms.
+ * <p>
+ * Each bond has a label that encodes its bond order (0 = unset, 1 = single,
+ * 2 = double, 3 = triple, 4 = quadruple) and whether it is aromatic (flag
+ * AROMATIC). Two bonds can only be mapped onto each other if their labels
+ * are equal. All labels are smaller than LABEL_COUNT.
  */
 public class Bond {
 
+    // flag of aromatic bonds
+    public static final int AROMATIC = 8;
+
+    // upper bound on all labels
+    public static final int LABEL_COUNT = 16;
+
+    // label returned for pairs of atoms that are not bonded
+    public static final int NO_BOND = -1;
+
     private Atom v;
     private Atom w;
 
+    // bond order and aromaticity
+    private int label;
+
     /**
      * Create a bond between two atoms.
      * @param v
      * @param w
      */
     public Bond(Atom v, Atom w) {
+        this(v, w, 0);
+    }
+
+    /**
+     * Create a bond between two atoms with a certain label.
+     * @param v
+     * @param w
+     * @param label
+     */
+    public Bond(Atom v, Atom w, int label) {
         this.v = v;
         this.w = w;
+        this.label = label;
+    }
+
+    /**
+     * Determine the label of a CDK bond.
+     * @param bond
+     * @return
+     */
+    public static int label(IBond bond) {
+
+        int label = 0;
+        if (bond.getOrder() != null) {
+            switch (bond.getOrder()) {
+                case SINGLE:
+                    label = 1;
+                    break;
+                case DOUBLE:
+                    label = 2;
+                    break;
+                case TRIPLE:
+                    label = 3;
+                    break;
+                case QUADRUPLE:
+                    label = 4;
+                    break;
+                default:
+                    label = 0;
+            }
+        }
+
+        if (bond.isAromatic())
+            label |= AROMATIC;
+
+        return label;
     }
 
     /**
@@ -33,4 +96,12 @@ public class Bond {
     public Atom getOther() {
         return w;
     }
+
+    /**
+     * Return the label that encodes bond order and aromaticity.
+     * @return
+     */
+    public int getLabel() {
+        return label;
+    }
 }
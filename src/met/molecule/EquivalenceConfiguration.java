@@ -0,0 +1,122 @@
+package met.molecule;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Definition of equivalence: which atom traits are compared, whether bonds of
+ * different orders may be mapped onto each other, and whether deuterium is
+ * distinguished from hydrogen.
+ * <p>
+ * The configuration is applied once when a molecule graph is built: traits that
+ * are not compared are set to zero in the atom properties, bond labels are masked
+ * and deuterium is counted as hydrogen if isotopes are ignored. Thus, the invariant
+ * keys, neighborhood descriptors, fingerprints and canonical forms already follow
+ * the configuration, and a looser definition of equivalence costs nothing during
+ * the tests. Only molecules built with the same configuration can be equivalent.
+ */
+public class EquivalenceConfiguration {
+
+    // all traits are compared, bond orders and isotopes are distinguished
+    public static final EquivalenceConfiguration DEFAULT =
+            new EquivalenceConfiguration(EnumSet.allOf(AtomTrait.class), true, true);
+
+    // bits of the mask (bit AtomTrait.id is set iff the trait is compared)
+    private static final int BOND_ORDERS = 1 << 30;
+    private static final int ISOTOPES = 1 << 29;
+
+    // compiled configuration
+    private final int mask;
+
+    /**
+     * Create a configuration.
+     *
+     * @param traits     Atom traits that are compared.
+     * @param bondOrders Whether only bonds with equal order and aromaticity are mapped onto each other.
+     * @param isotopes   Whether deuterium is distinguished from hydrogen.
+     */
+    public EquivalenceConfiguration(Set<AtomTrait> traits, boolean bondOrders, boolean isotopes) {
+        int m = 0;
+        for (AtomTrait trait : traits) {
+            m |= 1 << trait.id;
+        }
+        if (bondOrders)
+            m |= BOND_ORDERS;
+        if (isotopes)
+            m |= ISOTOPES;
+        mask = m;
+    }
+
+    /**
+     * Create a configuration from its mask.
+     */
+    private EquivalenceConfiguration(int mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Return the configuration with a certain mask (see getMask()).
+     *
+     * @param mask
+     * @return
+     */
+    public static EquivalenceConfiguration fromMask(int mask) {
+        return mask == DEFAULT.mask ? DEFAULT : new EquivalenceConfiguration(mask);
+    }
+
+    /**
+     * Return the configuration compiled into a single int, e.g. for storing it.
+     *
+     * @return
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Test whether a trait is compared.
+     *
+     * @param trait
+     * @return
+     */
+    public boolean compares(AtomTrait trait) {
+        return (mask & (1 << trait.id)) != 0;
+    }
+
+    /**
+     * Test whether bond orders and aromaticity are compared.
+     *
+     * @return
+     */
+    public boolean comparesBondOrders() {
+        return (mask & BOND_ORDERS) != 0;
+    }
+
+    /**
+     * Test whether deuterium is distinguished from hydrogen.
+     *
+     * @return
+     */
+    public boolean distinguishesIsotopes() {
+        return (mask & ISOTOPES) != 0;
+    }
+
+    /**
+     * Return the mask that is applied to each bond label.
+     *
+     * @return
+     */
+    public int getBondLabelMask() {
+        return comparesBondOrders() ? Bond.LABEL_COUNT - 1 : 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return mask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EquivalenceConfiguration && ((EquivalenceConfiguration) o).mask == mask;
+    }
+}
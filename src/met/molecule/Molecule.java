@@ -5,146 +5,341 @@ import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IBond;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class Molecule {
 
-    // reference to the CDK atom container
+    // reference to the CDK atom container (null if the molecule has been read without CDK)
     private IAtomContainer atomContainer;
 
+    // data fields of a molecule read without CDK
+    private Map<String, String> properties;
+
     // list of atoms
     private List<Atom> atoms;
 
     // list of bonds
     private List<Bond> bonds;
 
-    // adjacency list representation
+    /*
+     * Adjacency in compressed sparse row layout: the ids of the atoms adjacent
+     * to atom v are stored in ascending order at neighbors[offsets[v]] to
+     * neighbors[offsets[v+1] - 1], and bondLabel[k] is the label of the bond
+     * between v and neighbors[k].
+     */
+    private int[] offsets;
+    private int[] neighbors;
+    private byte[] bondLabel;
+
+    /*
+     * Molecules with at most MATRIX_THRESHOLD atoms additionally keep their
+     * adjacency matrix as bitset: bit w of row v (starting at adjacencyMatrix[v * words])
+     * is set iff v and w are bonded. Thus, hasBond() is a single probe.
+     */
+    private static final int MATRIX_THRESHOLD = 256;
+    private long[] adjacencyMatrix;
+    private int words;
+
+    /*
+     * Size of the smallest ring through the bond of each adjacency entry (0 if the
+     * bond is not on a ring, see RingPerception), and number of ring systems.
+     */
+    private byte[] bondRingSize;
+    private int ringSystemCount;
+
+    // adjacency list representation (for callers that iterate over atom objects)
     private List<List<Atom>> adjacentAtoms;
 
+    // atomic number, formal charge and number of single electrons of each atom
+    private int[] atomicNumber;
+    private int[] formalCharge;
+    private int[] singleElectronCount;
+
+    // number of hydrogen and deuterium atoms of each atom
+    private int[] hydrogenCount;
+    private int[] deuteriumCount;
+
     // properties and statistics characterizing this met.molecule
     private MoleculeProperties moleculeProperties;
 
+    // definition of equivalence applied to the atom properties and bond labels
+    private EquivalenceConfiguration configuration = EquivalenceConfiguration.DEFAULT;
+
     /**
      * Create an undirected graph from a CDK container.
+     * The CDK container is only read, never modified.
      */
     public Molecule(IAtomContainer molecule) {
+        this(molecule, EquivalenceConfiguration.DEFAULT);
+    }
 
-        // todo: avoid removing hydrogen atoms
+    /**
+     * Create an undirected graph from a CDK container whose atom properties and bond
+     * labels follow a certain definition of equivalence.
+     * The CDK container is only read, never modified.
+     *
+     * @param molecule
+     * @param configuration
+     */
+    public Molecule(IAtomContainer molecule, EquivalenceConfiguration configuration) {
 
-        /**********************************************************************
-         * Transform explicit hydrogen atoms to implicit ones
-         *********************************************************************/
+        this.configuration = configuration;
+        atomContainer = molecule;
+        int atomCount = molecule.getAtomCount();
+        int bondCount = molecule.getBondCount();
+
+        // extract the atom data of the CDK container
+        IAtom[] iAtoms = new IAtom[atomCount];
+        int[] atomicNumber = new int[atomCount];
+        int[] formalCharge = new int[atomCount];
+        int[] massNumber = new int[atomCount];
+        int[] singleElectrons = new int[atomCount];
+        for (int i = 0; i < atomCount; i++) {
+            IAtom iAtom = molecule.getAtom(i);
+            iAtoms[i] = iAtom;
+            if (iAtom.getSymbol().equals("H"))
+                atomicNumber[i] = 1;
+            else if (iAtom.getAtomicNumber() != null)
+                atomicNumber[i] = iAtom.getAtomicNumber();
+            if (iAtom.getFormalCharge() != null)
+                formalCharge[i] = iAtom.getFormalCharge();
+            if (iAtom.getMassNumber() != null)
+                massNumber[i] = iAtom.getMassNumber();
+            if (atomicNumber[i] != 1)
+                singleElectrons[i] = molecule.getConnectedSingleElectronsCount(iAtom);
+        }
 
-        for (int i = 0; i < molecule.getAtomCount(); i++) {
+        // extract the bond data of the CDK container
+        int[] bondBegin = new int[bondCount];
+        int[] bondEnd = new int[bondCount];
+        int[] bondLabel = new int[bondCount];
+        int b = 0;
+        for (IBond bond : molecule.bonds()) {
 
-            //determine the hydrogen count and set it as attribute
-            IAtom currentAtom = molecule.getAtom(i);
-            List<IAtom> coAts = molecule.getConnectedAtomsList(currentAtom);
+            if (bond.getAtomCount() != 2) {
+                System.err.println("Error: met.molecule.Bond with more than 2 atoms!");
+            }
 
-            //set the hybridisation as atom property for all atoms except hydrogens
-            if (!(currentAtom.getSymbol().equals("H"))) {
+            bondBegin[b] = molecule.indexOf(bond.getBegin());
+            bondEnd[b] = molecule.indexOf(bond.getEnd());
+            bondLabel[b] = Bond.label(bond);
+            b++;
+        }
 
-                int hydrogens = 0;
-                int deuterium = 0;
-                for (int cA = 0; cA < coAts.size(); cA++) {
-                    IAtom current_coAt = coAts.get(cA);
+        build(atomCount, iAtoms, atomicNumber, formalCharge, massNumber, singleElectrons,
+                bondCount, bondBegin, bondEnd, bondLabel);
+    }
 
-                    if (current_coAt.getSymbol().equals("H")) {
+    /**
+     * Create an undirected graph from plain atom and bond arrays, as produced by a
+     * file reader. The arrays may be longer than the number of atoms and bonds and
+     * are not referenced after construction, so that a reader can reuse them.
+     *
+     * @param atomCount       Number of atoms.
+     * @param atomicNumber    Atomic number of each atom.
+     * @param formalCharge    Formal charge of each atom.
+     * @param massNumber      Mass number of each atom, or 0 if unspecified.
+     * @param singleElectrons Number of single electrons of each atom.
+     * @param bondCount       Number of bonds.
+     * @param bondBegin       Index of the first atom of each bond.
+     * @param bondEnd         Index of the second atom of each bond.
+     * @param bondLabel       Label of each bond (see Bond).
+     * @param properties      Data fields of the molecule (may be null).
+     * @param configuration   Definition of equivalence.
+     */
+    public Molecule(int atomCount, int[] atomicNumber, int[] formalCharge, int[] massNumber, int[] singleElectrons,
+                    int bondCount, int[] bondBegin, int[] bondEnd, int[] bondLabel, Map<String, String> properties,
+                    EquivalenceConfiguration configuration) {
+        this.properties = properties;
+        this.configuration = configuration;
+        build(atomCount, null, atomicNumber, formalCharge, massNumber, singleElectrons,
+                bondCount, bondBegin, bondEnd, bondLabel);
+    }
 
-                        if (current_coAt.getMassNumber() != null) {
-                            deuterium++;
-                            molecule.removeBond(currentAtom, current_coAt);
+    /**
+     * Restore a molecule graph from its stored representation (see met.io.MoleculeWriter).
+     * Hydrogen atoms are already folded into the counts of their neighbors, the
+     * adjacency is given in CSR layout with sorted adjacency lists, and the
+     * neighborhood descriptors are not recomputed. The arrays are taken over
+     * without copy.
+     *
+     * @param atomCount              Number of atoms.
+     * @param atomicNumber           Atomic number of each atom.
+     * @param formalCharge           Formal charge of each atom.
+     * @param singleElectrons        Number of single electrons of each atom.
+     * @param hydrogenCount          Number of hydrogen atoms of each atom.
+     * @param deuteriumCount         Number of deuterium atoms of each atom.
+     * @param offsets                Start of the adjacency list of each atom (atomCount + 1 entries).
+     * @param neighbors              Adjacent atoms.
+     * @param bondLabel              Label of the bond to each adjacent atom.
+     * @param neighborhoodDescriptor Neighborhood descriptor of each atom.
+     * @param properties             Data fields of the molecule (may be null).
+     * @param configuration          Definition of equivalence that has been applied to the stored molecule.
+     */
+    public Molecule(int atomCount, int[] atomicNumber, int[] formalCharge, int[] singleElectrons,
+                    int[] hydrogenCount, int[] deuteriumCount, int[] offsets, int[] neighbors, byte[] bondLabel,
+                    long[] neighborhoodDescriptor, Map<String, String> properties,
+                    EquivalenceConfiguration configuration) {
+
+        this.properties = properties;
+        this.configuration = configuration;
+        this.atomicNumber = atomicNumber;
+        this.formalCharge = formalCharge;
+        this.singleElectronCount = singleElectrons;
+        this.hydrogenCount = hydrogenCount;
+        this.deuteriumCount = deuteriumCount;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.bondLabel = bondLabel;
+
+        atoms = new ArrayList<>(atomCount);
+        for (int v = 0; v < atomCount; v++) {
+            atoms.add(new Atom(v, null));
+        }
 
-                        } else {
-                            hydrogens++;
-                            molecule.removeBond(currentAtom, current_coAt);
-                        }
+        // each bond (v,w) is listed at its smaller atom v
+        bonds = new ArrayList<>(offsets[atomCount] / 2);
+        for (int v = 0; v < atomCount; v++) {
+            for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                int w = neighbors[k];
+                if (v < w)
+                    bonds.add(new Bond(atoms.get(v), atoms.get(w), bondLabel[k]));
+            }
+        }
 
-                    }
+        indexAdjacency();
+        perceiveRings();
 
-                }
-                currentAtom.setImplicitHydrogenCount(hydrogens);
-                currentAtom.setProperty("Deuterium", deuterium);
+        moleculeProperties = new MoleculeProperties(this, neighborhoodDescriptor);
+    }
 
-            } else if (currentAtom.getSymbol().equals("H") && (currentAtom.getFormalCharge() != 0)) {
-                int hydrogens = 0;
-                int deuterium = 0;
+    /**
+     * Build the graph from atom and bond arrays.
+     *
+     * @param iAtoms CDK atom of each atom, or null.
+     */
+    private void build(int atomCount, IAtom[] iAtoms, int[] atomicNumber, int[] formalCharge, int[] massNumber,
+                       int[] singleElectrons, int bondCount, int[] bondBegin, int[] bondEnd, int[] labels) {
 
-                if (currentAtom.getMassNumber() != null) {
-                    deuterium++;
+        /**********************************************************************
+         * Determine the atoms of the graph. Neutral hydrogen atoms are not
+         * part of the graph but are counted as hydrogen (or deuterium, if they
+         * have a mass number) of their neighbors. Charged hydrogen atoms stay
+         * in the graph and count themselves.
+         *********************************************************************/
 
-                } else {
-                    hydrogens++;
-                }
+        // id of the atom of each input atom in the graph (or -1)
+        int[] atomID = new int[atomCount];
+
+        // prepare list of atoms
+        atoms = new ArrayList<>();
 
-                currentAtom.setImplicitHydrogenCount(hydrogens);
-                currentAtom.setProperty("Deuterium", deuterium);
+        // for each input atom
+        for (int i = 0; i < atomCount; i++) {
+            if (atomicNumber[i] == 1 && formalCharge[i] == 0) {
+                atomID[i] = -1;
+            } else {
+                atomID[i] = atoms.size();
+                atoms.add(new Atom(atomID[i], iAtoms != null ? iAtoms[i] : null));
             }
         }
 
-        //remove all hydrogens
-        for (int i = 0; i < molecule.getAtomCount(); i++) {
-            IAtom currentAtom = molecule.getAtom(i);
-            if ((currentAtom.getSymbol().equals("H")) && (currentAtom.getFormalCharge() == 0)) {
-                molecule.removeAtom(currentAtom);
-                i--;
+        int n = atoms.size();
+        this.atomicNumber = new int[n];
+        this.formalCharge = new int[n];
+        this.singleElectronCount = new int[n];
+        hydrogenCount = new int[n];
+        deuteriumCount = new int[n];
+
+        for (int i = 0; i < atomCount; i++) {
+            int id = atomID[i];
+            if (id != -1) {
+                this.atomicNumber[id] = atomicNumber[i];
+                this.formalCharge[id] = formalCharge[i];
+                this.singleElectronCount[id] = singleElectrons[i];
+
+                // a charged hydrogen atom counts itself
+                if (atomicNumber[i] == 1)
+                    countHydrogen(id, massNumber[i]);
             }
         }
 
         /**********************************************************************
-         * Transform CDK met.molecule into adjacency graph representation.
+         * Transform the bonds into the adjacency graph representation.
          *********************************************************************/
 
-        atomContainer = molecule;
-        int n = molecule.getAtomCount();
-
-        // prepare lists of atoms and adjacencies
-        atoms = new ArrayList<>();
-        adjacentAtoms = new ArrayList<>();
-
-        // for each atom in the CDK container
-        for (IAtom iAtom : molecule.atoms()) {
-
-            // determine the index of this atom in the CDK container
-            int id = molecule.indexOf(iAtom);
-
-            // create a new atom
-            atoms.add(new Atom(id, iAtom));
-
-            // create an empty adjacency list
-            adjacentAtoms.add(new ArrayList<>());
-        }
-
-        // transform bonds into adjacency lists
         bonds = new ArrayList<>();
-        for (IBond bond : molecule.bonds()) {
-
-            if (bond.getAtomCount() != 2) {
-                System.err.println("Error: met.molecule.Bond with more than 2 atoms!");
+        offsets = new int[n + 1];
+        for (int b = 0; b < bondCount; b++) {
+
+            int i1 = bondBegin[b];
+            int i2 = bondEnd[b];
+            boolean isHydrogen1 = atomicNumber[i1] == 1;
+            boolean isHydrogen2 = atomicNumber[i2] == 1;
+
+            // a bond between a hydrogen atom and another atom is counted as hydrogen of the other atom
+            if (isHydrogen1 != isHydrogen2) {
+                if (isHydrogen1)
+                    countHydrogen(atomID[i2], massNumber[i1]);
+                else
+                    countHydrogen(atomID[i1], massNumber[i2]);
+                continue;
             }
 
-            IAtom ia1 = bond.getBegin();
-            IAtom ia2 = bond.getEnd();
-
-            int index1 = molecule.indexOf(ia1);
-            int index2 = molecule.indexOf(ia2);
+            // bonds of neutral hydrogen atoms are not part of the graph
+            int index1 = atomID[i1];
+            int index2 = atomID[i2];
+            if (index1 == -1 || index2 == -1)
+                continue;
 
             Atom atom1 = atoms.get(index1);
             Atom atom2 = atoms.get(index2);
 
-            Bond b = new Bond(atom1, atom2);
-            bonds.add(b);
+            Bond bond = new Bond(atom1, atom2, labels[b] & configuration.getBondLabelMask());
+            bonds.add(bond);
 
-            // each edge (v,w) is stored twice
-            adjacentAtoms.get(index1).add(atom2);
-            adjacentAtoms.get(index2).add(atom1);
+            // count the degree of each atom
+            offsets[index1 + 1]++;
+            offsets[index2 + 1]++;
         }
 
-        // sort each adjacency list
-        for (List<Atom> neighbors : adjacentAtoms) {
-            Collections.sort(neighbors);
+        // each edge (v,w) is stored twice
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
         }
+        neighbors = new int[offsets[n]];
+        bondLabel = new byte[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (Bond bond : bonds) {
+            int v = bond.getOne().getID();
+            int w = bond.getOther().getID();
+            neighbors[fill[v]] = w;
+            bondLabel[fill[v]++] = (byte) bond.getLabel();
+            neighbors[fill[w]] = v;
+            bondLabel[fill[w]++] = (byte) bond.getLabel();
+        }
+
+        // sort each adjacency list (by insertion sort, as most atoms have few neighbors)
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v] + 1; i < offsets[v + 1]; i++) {
+                int w = neighbors[i];
+                byte label = bondLabel[i];
+                int j = i - 1;
+                while (j >= offsets[v] && neighbors[j] > w) {
+                    neighbors[j + 1] = neighbors[j];
+                    bondLabel[j + 1] = bondLabel[j];
+                    j--;
+                }
+                neighbors[j + 1] = w;
+                bondLabel[j + 1] = label;
+            }
+        }
+
+        indexAdjacency();
+        perceiveRings();
 
         /**********************************************************************
          * Calculate met.molecule properties and statistics.
@@ -153,6 +348,60 @@ public class Molecule {
         moleculeProperties = new MoleculeProperties(this);
     }
 
+    /**
+     * Create the adjacency matrix and the adjacency lists of atom objects from
+     * the CSR arrays.
+     */
+    private void indexAdjacency() {
+
+        int n = atoms.size();
+
+        // adjacency matrix of small molecules
+        if (n <= MATRIX_THRESHOLD) {
+            words = (n + 63) >>> 6;
+            adjacencyMatrix = new long[n * words];
+            for (int v = 0; v < n; v++) {
+                for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                    int w = neighbors[k];
+                    adjacencyMatrix[v * words + (w >>> 6)] |= 1L << w;
+                }
+            }
+        }
+
+        // adjacency lists of atom objects
+        adjacentAtoms = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) {
+            List<Atom> list = new ArrayList<>(getDegree(v));
+            for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                list.add(atoms.get(neighbors[k]));
+            }
+            adjacentAtoms.add(Collections.unmodifiableList(list));
+        }
+    }
+
+    /**
+     * Determine the ring bonds, the smallest ring through each of them and the
+     * number of ring systems.
+     */
+    private void perceiveRings() {
+        RingPerception rings = new RingPerception(atoms.size(), offsets, neighbors);
+        bondRingSize = rings.getBondRingSizes();
+        ringSystemCount = rings.getRingSystemCount();
+    }
+
+    /**
+     * Count a hydrogen atom as hydrogen or deuterium of an atom.
+     *
+     * @param id         Atom id.
+     * @param massNumber Mass number of the hydrogen atom, or 0 if unspecified.
+     */
+    private void countHydrogen(int id, int massNumber) {
+        if (massNumber != 0 && configuration.distinguishesIsotopes())
+            deuteriumCount[id]++;
+        else
+            hydrogenCount[id]++;
+    }
+
     /**
      * Return the number of atoms.
      *
@@ -196,37 +445,86 @@ public class Molecule {
      * @return
      */
     public boolean hasBond(Atom v, Atom w) {
+        return hasBond(v.getID(), w.getID());
+    }
+
+    /**
+     * Test whether the atoms with ids v and w are bonded.
+     *
+     * @param v Atom id.
+     * @param w Atom id.
+     * @return
+     */
+    public boolean hasBond(int v, int w) {
+        if (adjacencyMatrix != null)
+            return (adjacencyMatrix[v * words + (w >>> 6)] & (1L << w)) != 0;
+        return indexOfAdjacentAtom(v, w) != -1;
+    }
+
+    /**
+     * Return the label of the bond (v,w), or Bond.NO_BOND if v and w are not bonded.
+     *
+     * @return
+     */
+    public int getBondLabel(Atom v, Atom w) {
+        return getBondLabel(v.getID(), w.getID());
+    }
+
+    /**
+     * Return the label of the bond between the atoms with ids v and w, or Bond.NO_BOND
+     * if they are not bonded.
+     *
+     * @param v Atom id.
+     * @param w Atom id.
+     * @return
+     */
+    public int getBondLabel(int v, int w) {
+
+        // most queries are answered by the adjacency matrix
+        if (adjacencyMatrix != null && (adjacencyMatrix[v * words + (w >>> 6)] & (1L << w)) == 0)
+            return Bond.NO_BOND;
+
+        int k = indexOfAdjacentAtom(v, w);
+        if (k == -1)
+            return Bond.NO_BOND;
+        return bondLabel[k];
+    }
+
+    /**
+     * Return the position of the bond (v,w) in the array of neighbors, or -1.
+     */
+    private int indexOfAdjacentAtom(int v, int w) {
 
         // scan through the smaller edge list
         if (getDegree(v) > getDegree(w)) {
 
             // swap v and w
-            Atom tmp = v;
+            int tmp = v;
             v = w;
             w = tmp;
         }
 
         // apply binary search to find w in the adjacency list of v
 
-        int lower = 0;
-        int upper = getDegree(v);
+        int lower = offsets[v];
+        int upper = offsets[v + 1];
 
         while (lower < upper) {
 
-            // invariant: for all i with 0 <= i < l and r <= i < getDegree(v): adjacentNodes.get(v).get(i) != w
+            // invariant: for all i with offsets[v] <= i < lower and upper <= i < offsets[v+1]: neighbors[i] != w
 
-            int m = (lower + upper) / 2;
-            Atom a = getAdjacentAtoms(v).get(m);
+            int m = (lower + upper) >>> 1;
+            int a = neighbors[m];
 
-            if (a.getID() == w.getID())
-                return true;
-            else if (a.getID() < w.getID())
+            if (a == w)
+                return m;
+            else if (a < w)
                 lower = m + 1;
             else
                 upper = m;
         }
 
-        return false;
+        return -1;
     }
 
     /**
@@ -255,11 +553,119 @@ public class Molecule {
      * @return
      */
     int getDegree(Atom v) {
-        return getAdjacentAtoms(v).size();
+        return getDegree(v.getID());
     }
 
     /**
-     * Return the associated CDK atom container.
+     * Return the number of neighbors of the atom with id v.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getDegree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * Return the id of the k-th adjacent atom of the atom with id v, where 0 <= k < getDegree(v).
+     * The adjacent atoms are ordered by ascending id.
+     *
+     * @param v Atom id.
+     * @param k Position in the adjacency list of v.
+     * @return
+     */
+    public int getAdjacentAtom(int v, int k) {
+        return neighbors[offsets[v] + k];
+    }
+
+    /**
+     * Return the label of the bond between the atom with id v and its k-th adjacent atom.
+     *
+     * @param v Atom id.
+     * @param k Position in the adjacency list of v.
+     * @return
+     */
+    public int getAdjacentBondLabel(int v, int k) {
+        return bondLabel[offsets[v] + k];
+    }
+
+    /**
+     * Return the size of the smallest ring through the bond between the atom with
+     * id v and its k-th adjacent atom, or 0 if the bond is not on a ring. Rings
+     * with more than RingPerception.MAX_RING_SIZE atoms all have the same size.
+     *
+     * @param v Atom id.
+     * @param k Position in the adjacency list of v.
+     * @return
+     */
+    public int getAdjacentRingSize(int v, int k) {
+        return bondRingSize[offsets[v] + k];
+    }
+
+    /**
+     * Return the number of ring systems, i.e. of maximal sets of rings that are
+     * connected by shared bonds.
+     *
+     * @return
+     */
+    public int getRingSystemCount() {
+        return ringSystemCount;
+    }
+
+    /**
+     * Return the atomic number of an atom.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getAtomicNumber(int v) {
+        return atomicNumber[v];
+    }
+
+    /**
+     * Return the formal charge of an atom.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getFormalCharge(int v) {
+        return formalCharge[v];
+    }
+
+    /**
+     * Return the number of single electrons of an atom.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getSingleElectronCount(int v) {
+        return singleElectronCount[v];
+    }
+
+    /**
+     * Return the number of (explicit) hydrogen atoms without mass number bonded to an atom.
+     * If the configuration does not distinguish isotopes, deuterium atoms are included.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getHydrogenCount(int v) {
+        return hydrogenCount[v];
+    }
+
+    /**
+     * Return the number of deuterium atoms (hydrogen atoms with mass number) bonded to an atom,
+     * or 0 if the configuration does not distinguish isotopes.
+     *
+     * @param v Atom id.
+     * @return
+     */
+    public int getDeuteriumCount(int v) {
+        return deuteriumCount[v];
+    }
+
+    /**
+     * Return the associated CDK atom container, or null if the molecule has been read without CDK.
      *
      * @return
      */
@@ -267,6 +673,29 @@ public class Molecule {
         return atomContainer;
     }
 
+    /**
+     * Return a data field of the molecule (such as PUBCHEM_COMPOUND_CID), or null if missing.
+     *
+     * @param key Name of the data field.
+     * @return
+     */
+    public String getProperty(String key) {
+        if (atomContainer != null) {
+            Object value = atomContainer.getProperty(key);
+            return value != null ? value.toString() : null;
+        }
+        return properties != null ? properties.get(key) : null;
+    }
+
+    /**
+     * Return the definition of equivalence that has been applied to this molecule.
+     *
+     * @return
+     */
+    public EquivalenceConfiguration getConfiguration() {
+        return configuration;
+    }
+
     /**
      * Return the properties and statistics that characterize this met.molecule.
      *
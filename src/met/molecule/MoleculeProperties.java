@@ -1,16 +1,21 @@
 package met.molecule;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import met.helper.Hashing;
+import met.helper.Sorting;
+
+import java.util.Arrays;
 
 public class MoleculeProperties {
 
     // sum of the atomic number of all atoms
     private int totalSymbol;
 
-    // non-decreasing list of node degrees
-    private List<Integer> degreeSequence;
+    // degree sequence in compact form: number of atoms with degree 0, 1, 2, ...
+    private int[] degreeCounts;
+
+    // sorted multiset of atom classes, i.e. of pairs (invariant key, neighborhood descriptor)
+    private long[] classKeys;
+    private long[] classDescriptors;
 
     // total number of implicit hydrogen atoms
     private int totalHydrogen;
@@ -30,10 +35,22 @@ public class MoleculeProperties {
     private int totalSingleElectronCount;
 
     // sum of all atom descriptors
-    private int totalNeighborhoodDescriptors;
+    private long totalNeighborhoodDescriptors;
+
+    // total number of ring bonds, and number of ring systems
+    private int totalRingBonds;
+    private int ringSystemCount;
+
+    // mask of the equivalence configuration of the molecule
+    private int configurationMask;
+
+    // 128-bit digest of the statistics, the degree sequence and the atom classes
+    private long digestHigh;
+    private long digestLow;
 
-    // a string representation of important properties
-    private String fingerprint;
+    // seeds of the two halves of the digest
+    private static final long SEED_HIGH = 0x3C6EF372FE94F82BL;
+    private static final long SEED_LOW = 0xA54FF53A5F1D36F1L;
 
     /**
      * Determine a set of statistics that characterize a met.molecule.
@@ -52,17 +69,20 @@ public class MoleculeProperties {
 
         /**********************************************************************
          * Based on the atom properties, we assign to each atom an atom
-         * descriptor that characterizes the atom and its local neighborhood.
+         * descriptor that characterizes the atom and its neighborhood.
          *
-         * Each neighborhood descriptor d(i, k) is an integer that encodes the
-         * properties of the associated atom a_i and its local neighborhood up
-         * to a depth of k.
+         * The descriptors are computed by color refinement (1-dimensional
+         * Weisfeiler-Leman): starting with a hash of the atom properties,
+         * the descriptor d(i, k) of atom a_i in round k is a hash of
+         * d(i, k-1) and of the multiset of descriptors d(j, k-1) of its
+         * adjacent atoms a_j. The rounds continue until the partition of the
+         * atoms into classes of equal descriptors does not split anymore.
          *
          * Two atoms having the same neighborhood descriptor are (likely) to
          * have
          *
          *   a) an equivalent set of atom properties, and
-         *   b) an equivalent set of local neighbors.
+         *   b) an equivalent set of neighbors, neighbors of neighbors, etc.
          *
          * It may however be that two atoms having different structural
          * properties get the same neighborhood descriptor.
@@ -70,70 +90,101 @@ public class MoleculeProperties {
          * the met.algorithm met.algorithm (but very well harms its efficiency.)
          *********************************************************************/
 
-        List<Integer> neighborhoodDescriptor;
+        int n = molecule.getAtomCount();
 
-        // todo: experimentally find an optimum parameter
-        int maxDepth = 3;
+        // stores the descriptors d(a, k-1) and d(a, k)
+        long[] neighborhoodDescriptor = new long[n];
+        long[] newDescriptor = new long[n];
 
-        // stores the descriptors d(a, k)
-        neighborhoodDescriptor = new ArrayList<>();
+        // work array to count the number of classes
+        long[] sorted = new long[n];
 
         /**********************************************************************
-         * Initially, we set d[a, 0] := hash(atomProperties(a)).
+         * Initially, we set d[a, 0] := hash(invariant key of a).
          *********************************************************************/
 
         for (Atom atom : molecule.getAtoms()) {
-            int h_0 = atom.getProperties().hashCode();
-            neighborhoodDescriptor.add(h_0);
+            neighborhoodDescriptor[atom.getID()] = Hashing.mix(atom.getProperties().getInvariantKey());
         }
 
+        int classes = countClasses(neighborhoodDescriptor, sorted);
+
         /**********************************************************************
-         * Calculate d[i, k] := 31 * d[i, k-1] + s,
-         * where s is the sum of d[b, k-1] over all adjacent atoms b.
+         * Calculate d[i, k] := hash(d[i, k-1], s), where s is the sum of
+         * the hashed pairs (d[j, k-1], label of bond ij) over all adjacent
+         * atoms j. As addition is commutative, s represents the multiset of
+         * neighbor descriptors.
+         *
+         * Each round refines the partition of the previous round. Thus,
+         * there are at most n rounds.
          *********************************************************************/
 
-        for (int k = 0; k < maxDepth; k++) {
-
-            // store d[i,k] in a separate list to avoid overwriting the old values
-            List<Integer> newList = new ArrayList<>(molecule.getAtomCount());
+        for (int k = 0; k < n; k++) {
 
             // for each atom
-            for (int i = 0; i < molecule.getAtomCount(); i++) {
-
-                Atom atom = molecule.getAtom(i);
+            for (int i = 0; i < n; i++) {
 
-                int sum = 0;
+                long sum = 0;
 
-                // for each adjacent atom
-                for (Atom neighbor : molecule.getAdjacentAtoms(atom)) {
-                    int j = neighbor.getID();
-                    sum += neighborhoodDescriptor.get(j);
+                // for each adjacent atom and the label of the bond to it
+                for (int j = 0; j < molecule.getDegree(i); j++) {
+                    sum += Hashing.mix(Hashing.combine(neighborhoodDescriptor[molecule.getAdjacentAtom(i, j)],
+                            molecule.getAdjacentBondLabel(i, j)));
                 }
 
-                int oldValue = neighborhoodDescriptor.get(i);
-                int newValue = 31 * oldValue + sum;
-
-                // d[i, k] := 31 * d[i, k-1] + sum
-                newList.add(newValue);
+                newDescriptor[i] = Hashing.combine(neighborhoodDescriptor[i], sum);
             }
 
-            // overwrite the old values by the new ones
-            for (int i = 0; i < molecule.getAtomCount(); i++) {
-                neighborhoodDescriptor.set(i, newList.get(i));
-            }
+            // the new descriptors replace the old ones
+            long[] tmp = neighborhoodDescriptor;
+            neighborhoodDescriptor = newDescriptor;
+            newDescriptor = tmp;
+
+            // stop as soon as no class has been split
+            int newClasses = countClasses(neighborhoodDescriptor, sorted);
+            if (newClasses == classes)
+                break;
+            classes = newClasses;
         }
 
 
         /**********************************************************************
-         * Now the neighborhood descriptors characterize the local neighborhood
-         * of each atom up to a depth of maxDepth.
+         * Now the neighborhood descriptors characterize each atom as precise
+         * as color refinement allows.
          *********************************************************************/
 
+        accumulate(molecule, neighborhoodDescriptor);
+    }
+
+    /**
+     * Restore the statistics of a met.molecule whose neighborhood descriptors have
+     * been computed before (e.g. when read from a binary library). The color
+     * refinement is skipped.
+     *
+     * @param molecule
+     * @param neighborhoodDescriptor Neighborhood descriptor of each atom.
+     */
+    public MoleculeProperties(Molecule molecule, long[] neighborhoodDescriptor) {
+
+        for (Atom atom : molecule.getAtoms()) {
+            atom.getProperties().initialize(molecule);
+        }
+
+        accumulate(molecule, neighborhoodDescriptor);
+    }
+
+    /**
+     * Store the neighborhood descriptors in the atom properties and accumulate the
+     * atom properties to the statistics of the met.molecule.
+     *
+     * @param molecule
+     * @param neighborhoodDescriptor Neighborhood descriptor of each atom.
+     */
+    private void accumulate(Molecule molecule, long[] neighborhoodDescriptor) {
+
         // write back the descriptors to the atom properties
         for (Atom atom : molecule.getAtoms()) {
-            int i = atom.getID();
-            int d_i = neighborhoodDescriptor.get(i);
-            atom.getProperties().setNeighborhoodDescriptor(d_i);
+            atom.getProperties().setNeighborhoodDescriptor(neighborhoodDescriptor[atom.getID()]);
         }
 
         /**********************************************************************
@@ -152,35 +203,115 @@ public class MoleculeProperties {
             totalFormalCharge += prop.getFormalCharge();
             totalSingleElectronCount += prop.getSingleElectronCount();
             totalNeighborhoodDescriptors += prop.getNeighborhoodDescriptor();
+            totalRingBonds += prop.getNumRingBonds();
         }
+        totalRingBonds /= 2;
+        ringSystemCount = molecule.getRingSystemCount();
+
+        configurationMask = molecule.getConfiguration().getMask();
 
         // create degree sequence
-        degreeSequence = new ArrayList<>();
-        for (Atom atom : molecule.getAtoms()) {
-            degreeSequence.add(molecule.getDegree(atom));
+        int n = molecule.getAtomCount();
+        int maxDegree = 0;
+        for (int v = 0; v < n; v++) {
+            maxDegree = Math.max(maxDegree, molecule.getDegree(v));
+        }
+        degreeCounts = new int[maxDegree + 1];
+        for (int v = 0; v < n; v++) {
+            degreeCounts[molecule.getDegree(v)]++;
+        }
+
+        /**********************************************************************
+         * Sort the atom classes by invariant key and, among equal keys, by
+         * neighborhood descriptor.
+         *********************************************************************/
+
+        classKeys = new long[n];
+        classDescriptors = new long[n];
+        int[] order = new int[n];
+        for (int v = 0; v < n; v++) {
+            classKeys[v] = molecule.getAtom(v).getProperties().getInvariantKey();
+            order[v] = v;
+        }
+        Sorting.sort(classKeys, order, 0, n);
+        for (int i = 0; i < n; i++) {
+            classDescriptors[i] = neighborhoodDescriptor[order[i]];
+        }
+        for (int s = 0, e = 1; s < n; s = e++) {
+            while (e < n && classKeys[e] == classKeys[s])
+                e++;
+            Arrays.sort(classDescriptors, s, e);
         }
-        Collections.sort(degreeSequence);
 
         /**********************************************************************
-         * Concatenate all statistics to a single fingerprint string.
+         * Hash the configuration, all statistics, the degree sequence and
+         * the atom classes to a 128-bit digest.
          *********************************************************************/
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(totalSymbol).append("_");
-        sb.append(totalSingleBonds).append("_");
-        sb.append(totalDoubleBonds).append("_");
-        sb.append(totalTripleBonds).append("_");
-        sb.append(totalHydrogen).append("_");
-        sb.append(totalDeuterium).append("_");
-        sb.append(totalFormalCharge).append("_");
-        sb.append(totalSingleElectronCount).append("_");
-        sb.append(totalNeighborhoodDescriptors).append("_");
-        fingerprint = sb.toString();
+        long[] totals = {totalSymbol, totalSingleBonds, totalDoubleBonds, totalTripleBonds, totalHydrogen,
+                totalDeuterium, totalFormalCharge, totalSingleElectronCount, totalNeighborhoodDescriptors,
+                totalRingBonds, ringSystemCount};
+
+        long h = Hashing.combine(Hashing.combine(SEED_HIGH, configurationMask), n);
+        long l = Hashing.combine(Hashing.combine(SEED_LOW, configurationMask), degreeCounts.length);
+        for (long x : totals) {
+            h = Hashing.combine(h, x);
+            l = Hashing.combine(l, Long.rotateLeft(x, 32) ^ SEED_HIGH);
+        }
+        for (int x : degreeCounts) {
+            h = Hashing.combine(h, x);
+            l = Hashing.combine(l, Long.rotateLeft(x, 32) ^ SEED_HIGH);
+        }
+        for (int i = 0; i < n; i++) {
+            h = Hashing.combine(Hashing.combine(h, classKeys[i]), classDescriptors[i]);
+            l = Hashing.combine(Hashing.combine(l, Long.rotateLeft(classKeys[i], 32) ^ SEED_HIGH),
+                    Long.rotateLeft(classDescriptors[i], 32) ^ SEED_HIGH);
+        }
+        digestHigh = h;
+        digestLow = l;
+    }
+
+    /**
+     * Return the number of distinct values.
+     *
+     * @param values Array of values.
+     * @param sorted Work array of the same length.
+     * @return
+     */
+    private static int countClasses(long[] values, long[] sorted) {
+
+        System.arraycopy(values, 0, sorted, 0, values.length);
+        Arrays.sort(sorted);
+
+        int classes = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                classes++;
+        }
+        return classes;
+    }
+
+    /**
+     * Return the upper 64 bits of the digest of these properties.
+     *
+     * @return
+     */
+    public long getDigestHigh() {
+        return digestHigh;
+    }
+
+    /**
+     * Return the lower 64 bits of the digest of these properties.
+     *
+     * @return
+     */
+    public long getDigestLow() {
+        return digestLow;
     }
 
     @Override
     public int hashCode() {
-        return fingerprint.hashCode();
+        return (int) (digestLow ^ (digestLow >>> 32));
     }
 
     /**
@@ -197,6 +328,13 @@ public class MoleculeProperties {
 
         MoleculeProperties other = (MoleculeProperties) o;
 
+        // different digests imply different properties
+        if (this.digestHigh != other.digestHigh) return false;
+        if (this.digestLow != other.digestLow) return false;
+
+        // molecules built with different configurations are never equivalent
+        if (this.configurationMask != other.configurationMask) return false;
+
         if (this.totalSymbol != other.totalSymbol) return false;
         if (this.totalSingleBonds != other.totalSingleBonds) return false;
         if (this.totalDoubleBonds != other.totalDoubleBonds) return false;
@@ -206,9 +344,12 @@ public class MoleculeProperties {
         if (this.totalFormalCharge != other.totalFormalCharge) return false;
         if (this.totalSingleElectronCount != other.totalSingleElectronCount) return false;
         if (this.totalNeighborhoodDescriptors != other.totalNeighborhoodDescriptors) return false;
+        if (this.totalRingBonds != other.totalRingBonds) return false;
+        if (this.ringSystemCount != other.ringSystemCount) return false;
 
-        // todo: elementwise compare the atom properties
-
-        return true;
+        // compare the degree sequences and the multisets of atom classes
+        if (!Arrays.equals(this.degreeCounts, other.degreeCounts)) return false;
+        if (!Arrays.equals(this.classKeys, other.classKeys)) return false;
+        return Arrays.equals(this.classDescriptors, other.classDescriptors);
     }
 }
@@ -0,0 +1,228 @@
+package met.molecule;
+
+import java.util.Arrays;
+
+/**
+ * Ring perception on the adjacency lists of a molecule graph.
+ * <p>
+ * The bonds are partitioned into biconnected components by a single depth-first
+ * search (Hopcroft-Tarjan). A bond lies on a ring iff its component has more than
+ * one bond, and each such component is a ring system. The smallest ring through a
+ * ring bond (v,w) is found by a breadth-first search from v to w inside the
+ * component of the bond that avoids the bond itself. The search stops at the
+ * distance of the first hit, so that it only visits the close neighborhood of
+ * the bond, and at MAX_RING_SIZE; larger rings are reported as LARGE_RING.
+ * <p>
+ * All results are invariant under renumbering the atoms.
+ */
+final class RingPerception {
+
+    // largest ring size that is determined exactly
+    static final int MAX_RING_SIZE = 62;
+
+    // ring size of a ring bond without a ring of at most MAX_RING_SIZE atoms
+    static final int LARGE_RING = MAX_RING_SIZE + 1;
+
+    // adjacency in CSR layout (see Molecule)
+    private final int n;
+    private final int[] offsets;
+    private final int[] neighbors;
+
+    // position of the reverse entry (w,v) of each adjacency entry (v,w)
+    private final int[] reverse;
+
+    // biconnected component of each adjacency entry, or -1 if the bond is not on a ring
+    private final int[] component;
+
+    // size of the smallest ring through the bond of each adjacency entry (0 if none)
+    private final byte[] bondRingSize;
+
+    // number of ring systems
+    private int ringSystemCount;
+
+    /**
+     * Perceive the rings of a graph.
+     *
+     * @param n         Number of atoms.
+     * @param offsets   Start of the adjacency list of each atom.
+     * @param neighbors Adjacency lists, each sorted in ascending order.
+     */
+    RingPerception(int n, int[] offsets, int[] neighbors) {
+
+        this.n = n;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+
+        int m = offsets[n];
+        reverse = new int[m];
+        component = new int[m];
+        bondRingSize = new byte[m];
+        Arrays.fill(component, -1);
+
+        // as the lists are sorted, the entries (w,v) are met in ascending order of v
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int v = 0; v < n; v++) {
+            for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                int w = neighbors[k];
+                if (v < w) {
+                    reverse[k] = next[w];
+                    reverse[next[w]++] = k;
+                }
+            }
+        }
+
+        findComponents();
+        findSmallestRings();
+    }
+
+    /**
+     * Partition the bonds into biconnected components by an iterative depth-first
+     * search and mark the bonds of components with more than one bond.
+     */
+    private void findComponents() {
+
+        int[] discovery = new int[n];
+        int[] low = new int[n];
+        int[] position = new int[n];       // next adjacency entry to be examined
+        int[] treeEntry = new int[n];      // entry by which an atom has been discovered
+        int[] atomStack = new int[n];
+        int[] edgeStack = new int[offsets[n] / 2];
+        int time = 0;
+
+        for (int root = 0; root < n; root++) {
+
+            if (discovery[root] != 0)
+                continue;
+
+            int atomTop = 0;
+            int edgeTop = 0;
+            atomStack[atomTop++] = root;
+            discovery[root] = low[root] = ++time;
+            position[root] = offsets[root];
+            treeEntry[root] = -1;
+
+            while (atomTop > 0) {
+
+                int v = atomStack[atomTop - 1];
+
+                if (position[v] < offsets[v + 1]) {
+
+                    int k = position[v]++;
+                    int w = neighbors[k];
+
+                    // do not walk back along the tree edge
+                    if (treeEntry[v] != -1 && k == reverse[treeEntry[v]])
+                        continue;
+
+                    if (discovery[w] == 0) {
+                        edgeStack[edgeTop++] = k;
+                        discovery[w] = low[w] = ++time;
+                        position[w] = offsets[w];
+                        treeEntry[w] = k;
+                        atomStack[atomTop++] = w;
+                    } else if (discovery[w] < discovery[v]) {
+                        edgeStack[edgeTop++] = k;
+                        low[v] = Math.min(low[v], discovery[w]);
+                    }
+                    continue;
+                }
+
+                // v is finished
+                atomTop--;
+                if (atomTop == 0)
+                    break;
+                int u = atomStack[atomTop - 1];
+                low[u] = Math.min(low[u], low[v]);
+
+                // u separates the component of the tree edge (u,v) from the root
+                if (low[v] >= discovery[u]) {
+                    int start = edgeTop;
+                    do {
+                        start--;
+                    } while (edgeStack[start] != treeEntry[v]);
+
+                    if (edgeTop - start > 1) {
+                        for (int i = start; i < edgeTop; i++) {
+                            component[edgeStack[i]] = ringSystemCount;
+                            component[reverse[edgeStack[i]]] = ringSystemCount;
+                        }
+                        ringSystemCount++;
+                    }
+                    edgeTop = start;
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine the size of the smallest ring through each ring bond.
+     */
+    private void findSmallestRings() {
+
+        int[] distance = new int[n];
+        int[] queue = new int[n];
+        Arrays.fill(distance, -1);
+
+        for (int v = 0; v < n; v++) {
+            for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+
+                int w = neighbors[k];
+                if (v > w || component[k] == -1)
+                    continue;
+
+                // breadth-first search from v to w within the component, avoiding the bond (v,w)
+                int c = component[k];
+                int size = LARGE_RING;
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = v;
+                distance[v] = 0;
+
+                search:
+                while (head < tail) {
+                    int x = queue[head++];
+                    if (distance[x] + 2 > MAX_RING_SIZE)
+                        break;
+                    for (int l = offsets[x]; l < offsets[x + 1]; l++) {
+                        int y = neighbors[l];
+                        if (component[l] != c || l == k || distance[y] != -1)
+                            continue;
+                        if (y == w) {
+                            size = distance[x] + 2;
+                            break search;
+                        }
+                        distance[y] = distance[x] + 1;
+                        queue[tail++] = y;
+                    }
+                }
+
+                // reset the visited atoms
+                for (int i = 0; i < tail; i++)
+                    distance[queue[i]] = -1;
+
+                bondRingSize[k] = (byte) size;
+                bondRingSize[reverse[k]] = (byte) size;
+            }
+        }
+    }
+
+    /**
+     * Return the size of the smallest ring through the bond of each adjacency
+     * entry, LARGE_RING for larger rings, and 0 for bonds that are not on a ring.
+     *
+     * @return
+     */
+    byte[] getBondRingSizes() {
+        return bondRingSize;
+    }
+
+    /**
+     * Return the number of ring systems, i.e. of biconnected components with
+     * more than one bond.
+     *
+     * @return
+     */
+    int getRingSystemCount() {
+        return ringSystemCount;
+    }
+}